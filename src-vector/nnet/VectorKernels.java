@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the kernels using the Java vector API, as wide as the
+ * processor allows (4 doubles with AVX2, 8 with AVX-512).
+ *
+ * Kept out of src since it needs Java 16 or later to build while the rest of
+ * the project builds for Java 8. Kernels loads it by name when it can.
+ * Products are multiplied then added, never fused, so the results match the
+ * plain loops as Kernels describes.
+ *
+ * @author Nick Vocaire
+ */
+final class VectorKernels extends Kernels {
+
+    /**
+     * Widest double vectors the processor has.
+     */
+    private static final VectorSpecies<Double> DOUBLES =
+            DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Widest int vectors the processor has.
+     */
+    private static final VectorSpecies<Integer> INTS =
+            IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Multiplier that divides a value under 2^16 by 3 when followed by a
+     * shift right of 17.
+     */
+    private static final int DIVIDE_BY_3 = 0xAAAB;
+
+    /**
+     * Constructor for making the SIMD kernels, fails if the vector module
+     * is not there.
+     */
+    VectorKernels() {
+        //Touch the module now so a missing one is found while loading
+        DoubleVector.zero(DOUBLES);
+    }
+
+    @Override
+    protected String getName() {
+        return "vector " + DOUBLES.vectorBitSize() + " bit";
+    }
+
+    @Override
+    protected double dot(final double[] a, final int aOffset,
+            final double[] b, final int bOffset, final int length) {
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(length);
+        int i = 0;
+
+        for (; i < upper; i += DOUBLES.length()) {
+            sums = sums.add(DoubleVector.fromArray(DOUBLES, a, aOffset + i)
+                    .mul(DoubleVector.fromArray(DOUBLES, b, bOffset + i)));
+        }
+
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    protected void axpy(final double a, final double[] x, final int xOffset,
+            final double[] y, final int yOffset, final int length) {
+        int upper = DOUBLES.loopBound(length);
+        int i = 0;
+
+        for (; i < upper; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, y, yOffset + i)
+                    .add(DoubleVector.fromArray(DOUBLES, x, xOffset + i)
+                            .mul(a))
+                    .intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += a * x[xOffset + i];
+        }
+    }
+
+    @Override
+    protected void axpy4(final double a0, final double a1, final double a2,
+            final double a3, final double[] x, final int x0, final int x1,
+            final int x2, final int x3, final double[] y, final int yOffset,
+            final int length) {
+        int upper = DOUBLES.loopBound(length);
+        int i = 0;
+
+        for (; i < upper; i += DOUBLES.length()) {
+            //Same order of adds as the plain loop
+            DoubleVector sum = DoubleVector.fromArray(DOUBLES, x, x0 + i)
+                    .mul(a0)
+                    .add(DoubleVector.fromArray(DOUBLES, x, x1 + i).mul(a1))
+                    .add(DoubleVector.fromArray(DOUBLES, x, x2 + i).mul(a2))
+                    .add(DoubleVector.fromArray(DOUBLES, x, x3 + i).mul(a3));
+            DoubleVector.fromArray(DOUBLES, y, yOffset + i).add(sum)
+                    .intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += a0 * x[x0 + i] + a1 * x[x1 + i]
+                    + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    @Override
+    protected void grayPrefix(final int[] rgb, final int offset,
+            final int[] sums, final int sumsOffset, final int length) {
+        int upper = INTS.loopBound(length);
+        int i = 0;
+
+        //Gray values a vector at a time, then the running sums in place
+        for (; i < upper; i += INTS.length()) {
+            IntVector p = IntVector.fromArray(INTS, rgb, offset + i);
+            IntVector gray = p.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                    .add(p.lanewise(VectorOperators.LSHR, 8).and(0xFF))
+                    .add(p.and(0xFF));
+
+            //Exact division by 3 for sums up to 765
+            gray.mul(DIVIDE_BY_3).lanewise(VectorOperators.LSHR, 17)
+                    .intoArray(sums, sumsOffset + i);
+        }
+
+        for (; i < length; i++) {
+            int p = rgb[offset + i];
+            sums[sumsOffset + i] = (((p >> 16) & 0xFF) + ((p >> 8) & 0xFF)
+                    + (p & 0xFF)) / 3;
+        }
+
+        for (i = 1; i < length; i++) {
+            sums[sumsOffset + i] += sums[sumsOffset + i - 1];
+        }
+    }
+}
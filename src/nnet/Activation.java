@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * Function a hidden layer squishes its weighted sums with. Each derivative
+ * is found from the neuron's value (the function's output) since that is
+ * what back-propagation has kept.
+ *
+ * @author Nick Vocaire
+ */
+enum Activation {
+
+    /**
+     * 1 / (1 + e^-v), between 0 and 1.
+     */
+    SIGMOID {
+        @Override
+        protected double apply(final double v) {
+            return Network.sigmoid(v);
+        }
+
+        @Override
+        protected double derivative(final double value) {
+            return value * (1.0 - value);
+        }
+    },
+
+    /**
+     * v above 0, otherwise 0. No exp, and its slope never fades for large
+     * values so deep stacks keep learning.
+     */
+    RELU {
+        @Override
+        protected double apply(final double v) {
+            return v > 0 ? v : 0;
+        }
+
+        @Override
+        protected double derivative(final double value) {
+            return value > 0 ? 1 : 0;
+        }
+    },
+
+    /**
+     * v above 0, otherwise LEAK * v, so neurons that go below 0 still learn.
+     */
+    LEAKY_RELU {
+        @Override
+        protected double apply(final double v) {
+            return v > 0 ? v : LEAK * v;
+        }
+
+        @Override
+        protected double derivative(final double value) {
+            return value > 0 ? 1 : LEAK;
+        }
+    },
+
+    /**
+     * Hyperbolic tangent, between -1 and 1. Found as 2 * sigmoid(2v) - 1 so
+     * it uses the fast sigmoid too when that is on.
+     */
+    TANH {
+        @Override
+        protected double apply(final double v) {
+            return 2 * Network.sigmoid(2 * v) - 1;
+        }
+
+        @Override
+        protected double derivative(final double value) {
+            return 1.0 - value * value;
+        }
+    };
+
+    /**
+     * Slope of a leaky ReLU below 0.
+     */
+    protected static final double LEAK = 0.01;
+
+    /**
+     * Squishes a weighted sum (plus bias) into a neuron value.
+     *
+     * @param v weighted sum
+     * @return value of the neuron
+     */
+    protected abstract double apply(double v);
+
+    /**
+     * Returns the slope of the function where it gave a value.
+     *
+     * @param value value of the neuron
+     * @return slope at that value
+     */
+    protected abstract double derivative(double value);
+}
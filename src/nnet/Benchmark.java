@@ -0,0 +1,652 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.awt.AWTException;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * Times the parts of the network that run every frame. Run with the name of
+ * a benchmark, or nothing to run them all.
+ *
+ * @author Nick Vocaire
+ */
+final class Benchmark {
+
+    /**
+     * Layer shapes timed, rows (neurons sending) by columns (neurons
+     * receiving). Covers 32x32 to 128x128 inputs into the first layer and
+     * narrow to wide hidden layers.
+     */
+    private static final int[][] SHAPES = {{1024, 16}, {1024, 128},
+        {4096, 256}, {9216, 512}, {16384, 512}, {64, 64}, {256, 256},
+        {512, 512}, {512, 8}};
+
+    /**
+     * Milliseconds each measurement runs for.
+     */
+    private static final long RUN_TIME = 500;
+
+    /**
+     * Results of timed work that returns something, kept so the work is not
+     * optimized away.
+     */
+    private static double sink;
+
+    /**
+     * Not made.
+     */
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args name of the benchmark to run, all of them if empty
+     */
+    public static void main(final String[] args) {
+        String which = args.length > 0 ? args[0] : "all";
+
+        if (which.equals("all") || which.equals("layers")) {
+            layers();
+        }
+        if (which.equals("all") || which.equals("batch")) {
+            batch();
+        }
+        if (which.equals("all") || which.equals("hogwild")) {
+            hogwild();
+        }
+        if (which.equals("all") || which.equals("precision")) {
+            precision();
+        }
+        if (which.equals("all") || which.equals("quantized")) {
+            quantized();
+        }
+        if (which.equals("all") || which.equals("kernels")) {
+            kernels();
+        }
+        if (which.equals("all") || which.equals("sigmoid")) {
+            sigmoid();
+        }
+        if (which.equals("all") || which.equals("sampling")) {
+            sampling();
+        }
+        if (which.equals("all") || which.equals("trainer")) {
+            trainer();
+        }
+        if (which.equals("all") || which.equals("capture")) {
+            capture();
+        }
+    }
+
+    /**
+     * Times the forward and backward pass of each layer shape on one thread
+     * and split across the shared pool, and prints the speedup.
+     */
+    private static void layers() {
+        System.out.println("Layer passes, " + Parallel.getPool()
+                .getParallelism() + " threads (ms per pass)");
+        System.out.printf("%-12s %10s %10s %8s %10s %10s %8s%n", "shape",
+                "fwd 1", "fwd N", "speedup", "back 1", "back N", "speedup");
+
+        for (int[] shape : SHAPES) {
+            Matrix weights = new Matrix(shape[0], shape[1]);
+            weights.fillRandom();
+            double[] x = random(shape[0]);
+            double[] out = new double[shape[1]];
+            double[] errors = random(shape[1]);
+            double[] back = new double[shape[0]];
+
+            Runnable forward = () -> weights.multiply(x, 1, out);
+            Runnable backward = () -> Parallel.forRange(0, shape[0],
+                    2L * shape[1], (from, to) -> {
+                for (int n = from; n < to; n++) {
+                    back[n] = weights.dotRow(n, errors);
+                    weights.addToRow(n, 1e-9 * x[n], errors);
+                }
+            });
+
+            Parallel.setThreshold(Long.MAX_VALUE);
+            double forward1 = time(forward);
+            double backward1 = time(backward);
+            Parallel.setThreshold(Parallel.DEFAULT_THRESHOLD);
+            double forwardN = time(forward);
+            double backwardN = time(backward);
+
+            System.out.printf("%-12s %10.4f %10.4f %7.2fx %10.4f %10.4f %7.2fx%n",
+                    shape[0] + "x" + shape[1], forward1, forwardN,
+                    forward1 / forwardN, backward1, backwardN,
+                    backward1 / backwardN);
+        }
+    }
+
+    /**
+     * Times training a batch of 64 samples on one thread, then split into
+     * the shards training uses, and prints the samples trained per second.
+     */
+    private static void batch() {
+        final int samples = 64;
+        int threads = Parallel.getPool().getParallelism();
+        Network net = makeNetwork(64, 64, 2, 256, 8);
+        double[] in = new double[net.getInputSize()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (int) (Math.random() * 256);
+        }
+
+        System.out.println("Batch of " + samples + ", 64x64 input, 2x256 "
+                + "layers (samples per second)");
+
+        Parallel.setThreshold(Long.MAX_VALUE);
+        ParallelBatch single = new ParallelBatch(net, samples, 1);
+        double one = samples * 1000 / time(() -> {
+            while (!single.add(in, 0, 1)) {
+            }
+            single.train(1e-9);
+        });
+        Parallel.setThreshold(Parallel.DEFAULT_THRESHOLD);
+
+        ParallelBatch sharded = new ParallelBatch(net, samples,
+                ParallelBatch.SHARDS);
+        double many = samples * 1000 / time(() -> {
+            while (!sharded.add(in, 0, 1)) {
+            }
+            sharded.train(1e-9);
+        });
+
+        System.out.printf("1 thread: %.0f  %d threads, %d shards: %.0f  "
+                + "speedup %.2fx%n", one, threads, sharded.getShards(), many,
+                many / one);
+    }
+
+    /**
+     * Times lock-free training with plain racing writes and with striped
+     * locks for 1 thread up to one per core, and prints the samples trained
+     * per second.
+     */
+    private static void hogwild() {
+        Network net = makeNetwork(64, 64, 2, 128, 8);
+        double[] in = new double[net.getInputSize()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (int) (Math.random() * 256);
+        }
+
+        System.out.println("Lock-free training, 64x64 input, 2x128 layers "
+                + "(samples per second)");
+        System.out.printf("%-8s %12s %12s%n", "threads", "racy",
+                "striped");
+
+        int most = Math.max(Parallel.getPool().getParallelism(), 2);
+        for (int threads = 1; threads <= most; threads *= 2) {
+            System.out.printf("%-8d %12.0f %12.0f%n", threads,
+                    hogwildRate(net, in, threads, false),
+                    hogwildRate(net, in, threads, true));
+        }
+    }
+
+    /**
+     * Feeds the same sample to a lock-free trainer as fast as it takes them
+     * and returns how many it trained per second.
+     *
+     * @param net the network
+     * @param in the sample input values
+     * @param threads number of worker threads
+     * @param striped true to use striped locks
+     * @return samples trained per second
+     */
+    private static double hogwildRate(final Network net, final double[] in,
+            final int threads, final boolean striped) {
+        HogwildTrainer trainer = new HogwildTrainer(net, threads, striped,
+                1e-9);
+        trainer.start();
+
+        long warm = System.nanoTime() + RUN_TIME * 1000000;
+        while (System.nanoTime() < warm) {
+            trainer.submit(in, 0, 1);
+        }
+
+        long startCount = trainer.getTrained();
+        long start = System.nanoTime();
+        long end = start + RUN_TIME * 1000000;
+        while (System.nanoTime() < end) {
+            if (!trainer.submit(in, 0, 1)) {
+                Thread.yield();
+            }
+        }
+        double rate = (trainer.getTrained() - startCount) * 1e9
+                / (System.nanoTime() - start);
+        trainer.stop();
+        return rate;
+    }
+
+    /**
+     * Times the forward and backward pass of each layer shape with double
+     * and with float weights, and prints the speedup.
+     */
+    private static void precision() {
+        System.out.println("Layer passes, double vs float weights (ms per "
+                + "pass)");
+        System.out.printf("%-12s %10s %10s %8s %10s %10s %8s%n", "shape",
+                "fwd 64", "fwd 32", "speedup", "back 64", "back 32",
+                "speedup");
+
+        for (int[] shape : SHAPES) {
+            double[] x = random(shape[0]);
+            double[] out = new double[shape[1]];
+            double[] errors = random(shape[1]);
+            double[] times = new double[4];
+
+            for (int p = 0; p < 2; p++) {
+                Matrix weights = new Matrix(shape[0], shape[1], p == 1);
+                weights.fillRandom();
+
+                times[p] = time(() -> weights.multiply(x, 1, out));
+                times[p + 2] = time(() -> {
+                    for (int n = 0; n < shape[0]; n++) {
+                        weights.dotRow(n, errors);
+                        weights.addToRow(n, 1e-9 * x[n], errors);
+                    }
+                });
+            }
+
+            System.out.printf("%-12s %10.4f %10.4f %7.2fx %10.4f %10.4f %7.2fx%n",
+                    shape[0] + "x" + shape[1], times[0], times[1],
+                    times[0] / times[1], times[2], times[3],
+                    times[2] / times[3]);
+        }
+    }
+
+    /**
+     * Times a frame of play with the network and with its 8 bit copy, and
+     * prints how far the copy's outputs are on random frames.
+     */
+    private static void quantized() {
+        final int frames = 64;
+        Network net = makeNetwork(96, 96, 2, 512, 8);
+        scaleWeights(net, 0.05);
+        double[][] samples = new double[frames][net.getInputSize()];
+        for (double[] sample : samples) {
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = (int) (Math.random() * 256);
+            }
+        }
+
+        QuantizedNetwork copy = new QuantizedNetwork(net);
+        double[] deviation = copy.deviation(samples);
+        double full = time(net::calculate);
+        double small = time(copy::calculate);
+
+        System.out.println("8 bit play, 96x96 input, 2x512 layers");
+        System.out.printf("weights %.1f MB -> %.1f MB%n",
+                copy.getWeightBytes() * 8 / 1e6, copy.getWeightBytes() / 1e6);
+        System.out.printf("ms per frame %.4f -> %.4f, speedup %.2fx%n", full,
+                small, full / small);
+        System.out.printf("output difference over %d frames: largest %.6f "
+                + "average %.6f%n", frames, deviation[0], deviation[1]);
+    }
+
+    /**
+     * Times the plain kernels against the ones in use (SIMD if they loaded)
+     * on rows of 512 doubles and of 4096 pixels.
+     */
+    private static void kernels() {
+        Kernels plain = new Kernels();
+        Kernels used = Kernels.KERNELS;
+        double[] x = random(4 * 512);
+        double[] y = random(512);
+        int[] pixels = new int[4096];
+        int[] prefix = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (int) (Math.random() * 0xFFFFFF);
+        }
+
+        System.out.println("Kernels, " + plain.getName() + " vs "
+                + used.getName() + " (ms per 1000 calls)");
+        System.out.printf("%-10s %10s %10s %8s%n", "kernel", "plain",
+                "used", "speedup");
+
+        double[][] times = new double[3][2];
+        Kernels[] both = {plain, used};
+        for (int i = 0; i < 2; i++) {
+            Kernels k = both[i];
+            times[0][i] = time(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    sink += k.dot(x, 0, y, 0, 512);
+                }
+            });
+            times[1][i] = time(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    k.axpy4(1e-9, 1e-9, 1e-9, 1e-9, x, 0, 512, 1024, 1536,
+                            y, 0, 512);
+                }
+            });
+            times[2][i] = time(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    k.grayPrefix(pixels, 0, prefix, 0, pixels.length);
+                    sink += prefix[prefix.length - 1];
+                }
+            });
+        }
+
+        String[] names = {"dot", "axpy4", "grayPrefix"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-10s %10.4f %10.4f %7.2fx%n", names[i],
+                    times[i][0], times[i][1], times[i][0] / times[i][1]);
+        }
+    }
+
+    /**
+     * Checks the largest difference of FastSigmoid from Math.exp over a
+     * fine sweep of inputs, then times both.
+     */
+    private static void sigmoid() {
+        double largest = 0, worst = 0;
+        for (double v = -40; v <= 40; v += 1.0 / 4096) {
+            double difference = Math.abs(FastSigmoid.sigmoid(v)
+                    - 1 / (1 + Math.exp(-v)));
+            if (difference > largest) {
+                largest = difference;
+                worst = v;
+            }
+        }
+
+        System.out.printf("Fast sigmoid: largest error %.3g at %.4f, "
+                + "limit %.3g %s%n", largest, worst, FastSigmoid.MAX_ERROR,
+                largest <= FastSigmoid.MAX_ERROR ? "ok" : "FAILED");
+
+        double[] values = new double[4096];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.random() * 16 - 8;
+        }
+        double exact = time(() -> {
+            for (double v : values) {
+                sink += 1 / (1 + Math.exp(-v));
+            }
+        });
+        double fast = time(() -> {
+            for (double v : values) {
+                sink += FastSigmoid.sigmoid(v);
+            }
+        });
+        System.out.printf("ms per %d: Math.exp %.4f, table %.4f, speedup "
+                + "%.2fx%n", values.length, exact, fast, exact / fast);
+    }
+
+    /**
+     * Times turning a 1920x1080 frame into 96x96 inputs with each sampling,
+     * and a screen capture of that size when there is a screen, so the time
+     * from capture to input can be added up for each.
+     */
+    private static void sampling() {
+        final int w = 1920, h = 1080;
+        Network net = makeNetwork(96, 96, 1, 16, 4);
+        net.setRegionWidth(w);
+        net.setRegionHeight(h);
+
+        BufferedImage frame = new BufferedImage(w, h,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                frame.setRGB(x, y, (int) (Math.random() * 0xFFFFFF));
+            }
+        }
+
+        System.out.println("Sampling, 1920x1080 frame to 96x96 inputs (ms "
+                + "per frame)");
+        if (!GraphicsEnvironment.isHeadless()) {
+            try {
+                Robot robot = new Robot();
+                Rectangle area = new Rectangle(0, 0, w, h);
+                System.out.printf("%-12s %10.4f%n", "capture",
+                        time(() -> robot.createScreenCapture(area)));
+            } catch (AWTException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        for (Sampling s : Sampling.values()) {
+            int[] sides = s == Sampling.STRIDED ? new int[]{1, 2, 4}
+                    : new int[]{net.getSamplesPerSide()};
+            for (int k : sides) {
+                net.setSampling(s);
+                net.setSamplesPerSide(k);
+                String name = s == Sampling.STRIDED ? s + " " + k + "x" + k
+                        : s.toString();
+                System.out.printf("%-12s %10.4f%n", name,
+                        time(() -> net.convertImage(frame)));
+            }
+        }
+    }
+
+    /**
+     * Runs the whole trainer loop with no display on synthetic frames as
+     * fast as it can, and prints the updates per second and how often the
+     * network picks each frame's key before and after.
+     */
+    private static void trainer() {
+        final long trainTime = 3000;
+        Network net = makeNetwork(32, 32, 1, 64, 4);
+        net.setRegionWidth(320);
+        net.setRegionHeight(320);
+        net.setFrameSource(new SyntheticFrameSource(1, net));
+        double before = accuracy(net, 200);
+
+        Trainer trainer = new Trainer(net);
+        trainer.setUpdates(0);
+        trainer.setLearningRate(0.1);
+        trainer.start();
+        try {
+            Thread.sleep(trainTime);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+        trainer.stopTraining();
+        try {
+            trainer.join();
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+
+        System.out.println("Headless trainer, synthetic 320x320 frames, "
+                + "32x32 input, 1x64 layer");
+        System.out.printf("updates per second %.1f%n",
+                trainer.getUpdateCount() * 1000.0 / trainTime);
+        System.out.printf("key picked %.1f%% -> %.1f%%%n", before * 100,
+                accuracy(net, 200) * 100);
+    }
+
+    /**
+     * Runs the headless trainer with a frame source that takes 10 ms a
+     * frame, like a slow screen capture, capturing on the trainer's thread
+     * and then on its own, and prints the updates per second of each.
+     */
+    private static void capture() {
+        final long trainTime = 3000;
+        final long captureDelay = 10;
+        Network net = makeNetwork(64, 64, 2, 256, 4);
+        net.setRegionWidth(640);
+        net.setRegionHeight(640);
+        SyntheticFrameSource synthetic = new SyntheticFrameSource(1, net);
+
+        net.setFrameSource(new FrameSource() {
+            @Override
+            public BufferedImage capture(final Rectangle area) {
+                try {
+                    Thread.sleep(captureDelay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return synthetic.capture(area);
+            }
+
+            @Override
+            public String getKeyPressed() {
+                return synthetic.getKeyPressed();
+            }
+        });
+
+        System.out.println("Capture taking " + captureDelay + " ms, 64x64 "
+                + "input, 2x256 layers");
+        for (boolean async : new boolean[]{false, true}) {
+            Trainer trainer = new Trainer(net);
+            trainer.setUpdates(0);
+            trainer.setAsyncCapture(async);
+            trainer.start();
+            try {
+                Thread.sleep(trainTime);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+            trainer.stopTraining();
+            try {
+                trainer.join();
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+            System.out.printf("%-6s updates per second %.1f%n",
+                    async ? "async" : "sync",
+                    trainer.getUpdateCount() * 1000.0 / trainTime);
+        }
+    }
+
+    /**
+     * Returns how often a network's most activated output is the key of a
+     * new frame from its frame source.
+     *
+     * @param net the network
+     * @param frames number of frames to try
+     * @return fraction picked right
+     */
+    private static double accuracy(final Network net, final int frames) {
+        int right = 0;
+        for (int f = 0; f < frames; f++) {
+            net.convertRegion();
+            net.calculate();
+            net.setKeyProb();
+            if (net.getPressedKey().equals(
+                    net.getFrameSource().getKeyPressed())) {
+                right++;
+            }
+        }
+        return (double) right / frames;
+    }
+
+    /**
+     * Scales every weight of a network so the sums of wide layers do not
+     * push every sigmoid to 0 or 1, which would hide any difference.
+     *
+     * @param net the network
+     * @param scale amount to scale the weights by
+     */
+    private static void scaleWeights(final Network net, final double scale) {
+        Matrix inputs = net.getInputWeights();
+        for (int r = 0; r < inputs.getRows(); r++) {
+            for (int c = 0; c < inputs.getColumns(); c++) {
+                inputs.set(r, c, inputs.get(r, c) * scale);
+            }
+        }
+
+        for (int l = 0; l < net.getLayerSize(); l++) {
+            Matrix weights = net.getLayer(l).getWeights();
+            for (int r = 0; r < weights.getRows(); r++) {
+                for (int c = 0; c < weights.getColumns(); c++) {
+                    weights.set(r, c, weights.get(r, c) * scale);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a network with random weights that is not saved.
+     *
+     * @param w width of the input
+     * @param h height of the input
+     * @param lay number of hidden layers
+     * @param neu neurons in each hidden layer
+     * @param outs number of output neurons
+     * @return the network
+     */
+    protected static Network makeNetwork(final int w, final int h,
+            final int lay, final int neu, final int outs) {
+        Matrix inputs = new Matrix(w * h, neu);
+        inputs.fillRandom();
+        Layer[] layers = new Layer[lay];
+
+        for (int l = 0; l < lay; l++) {
+            layers[l] = new Layer(neu, l == lay - 1 ? outs : neu);
+            layers[l].fillRandom();
+        }
+
+        ONeuron[] outputs = new ONeuron[outs];
+        for (int o = 0; o < outs; o++) {
+            try {
+                outputs[o] = new ONeuron(KeyEvent.class
+                        .getField("VK_" + (char) ('A' + o)), 0);
+            } catch (NoSuchFieldException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        Network net = new Network("benchmark", w, h, inputs, layers,
+                outputs);
+        net.setNetType("supervised");
+        return net;
+    }
+
+    /**
+     * Runs a piece of work over and over, first to warm up then for
+     * RUN_TIME, and returns how long it took.
+     *
+     * @param work the work to time
+     * @return milliseconds per run
+     */
+    protected static double time(final Runnable work) {
+        long end = System.nanoTime() + RUN_TIME * 1000000;
+        while (System.nanoTime() < end) {
+            work.run();
+        }
+
+        int runs = 0;
+        long start = System.nanoTime();
+        end = start + RUN_TIME * 1000000;
+        long now;
+        do {
+            work.run();
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+
+        return (now - start) / 1e6 / runs;
+    }
+
+    /**
+     * Makes an array of random values between 0 and 1.
+     *
+     * @param n length of the array
+     * @return the array
+     */
+    protected static double[] random(final int n) {
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = Math.random();
+        }
+        return a;
+    }
+}
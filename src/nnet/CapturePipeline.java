@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * Captures and converts frames of a network's region on its own thread, so
+ * a slow capture does not hold up the network.
+ *
+ * Frames go into one of two preallocated arrays of input values. The
+ * capture thread fills whichever array is not holding the newest frame, then
+ * makes it the newest. The network takes the newest frame, copying it into
+ * its input neurons while the capture thread waits, and a frame replaced
+ * before it was taken is dropped. Two arrays are enough since the copy is
+ * done before the capture thread can pick the array again.
+ *
+ * @author Nick Vocaire
+ */
+final class CapturePipeline {
+
+    /**
+     * Arrays of input values frames are converted into.
+     */
+    private static final int SLOTS = 2;
+
+    /**
+     * Network whose region is captured.
+     */
+    private final Network net;
+
+    /**
+     * Input values of each frame.
+     */
+    private final double[][] slots;
+
+    /**
+     * Key reported by the frame source for each frame.
+     */
+    private final String[] keys;
+
+    /**
+     * Time each frame started being captured, and was ready, in nanoseconds.
+     */
+    private final long[] started, ready;
+
+    /**
+     * Index of the newest frame not yet taken, -1 if there is none.
+     */
+    private int newest = -1;
+
+    /**
+     * True while the capture thread should keep capturing.
+     */
+    private volatile boolean running;
+
+    /**
+     * Thread that captures frames.
+     */
+    private Thread capturer;
+
+    /**
+     * frames - frames captured. taken - frames taken by the network.
+     * dropped - frames replaced before they were taken.
+     */
+    private long frames, taken, dropped;
+
+    /**
+     * captureTime - total nanoseconds capturing and converting.
+     * maxCaptureTime - longest capture and conversion. queueTime - total
+     * nanoseconds frames waited to be taken. age - total nanoseconds from
+     * the start of capturing to being taken.
+     */
+    private long captureTime, maxCaptureTime, queueTime, age;
+
+    /**
+     * Constructor for making a capture pipeline for a network.
+     *
+     * @param n the network
+     */
+    protected CapturePipeline(final Network n) {
+        net = n;
+        slots = new double[SLOTS][n.getInputSize()];
+        keys = new String[SLOTS];
+        started = new long[SLOTS];
+        ready = new long[SLOTS];
+    }
+
+    /**
+     * Starts capturing frames.
+     */
+    protected void start() {
+        running = true;
+        capturer = new Thread(this::capture, "capture");
+        capturer.setDaemon(true);
+        capturer.start();
+    }
+
+    /**
+     * Stops capturing frames and waits for the capture thread to finish.
+     */
+    protected void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+
+        try {
+            capturer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Captures frames until stopped.
+     */
+    private void capture() {
+        while (running) {
+            int slot;
+            synchronized (this) {
+                slot = newest == 0 ? 1 : 0;
+            }
+
+            long start = System.nanoTime();
+            net.convertRegion(slots[slot]);
+            FrameSource source = net.getFrameSource();
+            keys[slot] = source.getKeyPressed();
+            long end = System.nanoTime();
+
+            synchronized (this) {
+                started[slot] = start;
+                ready[slot] = end;
+                captureTime += end - start;
+                maxCaptureTime = Math.max(maxCaptureTime, end - start);
+                frames++;
+
+                if (newest != -1) {
+                    dropped++;
+                }
+                newest = slot;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a frame newer than the last one taken and copies it into the
+     * network's input neurons.
+     *
+     * @return key the frame source reported for the frame, null if it did
+     * not report one or the pipeline was stopped
+     */
+    protected synchronized String take() {
+        while (newest == -1 && running) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (newest == -1) {
+            return null;
+        }
+
+        double[] inputs = net.getInputValues();
+        System.arraycopy(slots[newest], 0, inputs, 0, inputs.length);
+
+        long now = System.nanoTime();
+        queueTime += now - ready[newest];
+        age += now - started[newest];
+        taken++;
+
+        String key = keys[newest];
+        newest = -1;
+        return key;
+    }
+
+    /**
+     * Returns the number of frames captured.
+     *
+     * @return frames captured
+     */
+    protected synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of frames replaced before the network took them.
+     *
+     * @return frames dropped
+     */
+    protected synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Returns a line with the counters: frames captured and dropped, average
+     * and longest capture time, and the average time frames waited to be
+     * taken and their average age when taken.
+     *
+     * @return the counters
+     */
+    protected synchronized String getStats() {
+        double perFrame = 1e6 * Math.max(1, frames);
+        double perTaken = 1e6 * Math.max(1, taken);
+        return String.format("captured %d, dropped %d, capture %.2f ms "
+                + "(longest %.2f), queued %.2f ms, age %.2f ms", frames,
+                dropped, captureTime / perFrame, maxCaptureTime / 1e6,
+                queueTime / perTaken, age / perTaken);
+    }
+}
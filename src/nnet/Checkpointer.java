@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves a network on its own thread, so the thread training it only stops
+ * for as long as it takes to copy the weights.
+ *
+ * A checkpoint copies the network into a snapshot of what was last saved,
+ * copying only the blocks of weights that changed, and hands it to the
+ * writer thread. If the network has a binary file the writer appends just
+ * the changed blocks to its delta file, otherwise it saves the whole
+ * network with Network.save. The whole network is also saved when the
+ * changes would grow the delta file past COMPACT_FRACTION of the binary
+ * file, which keeps loading to a bounded amount of reading, and after a
+ * save fails.
+ *
+ * If the last snapshot is still being written the checkpoint is skipped
+ * rather than waiting, and the next one saves newer weights anyway. When
+ * training ends, finish waits instead and saves the final weights, so
+ * while it runs the checkpointer is the only thing writing the network.
+ * Weights changed by other threads while they are copied, as
+ * HogwildTrainer does, may be copied part way through a change.
+ *
+ * @author Nick Vocaire
+ */
+final class Checkpointer {
+
+    /**
+     * Size of the delta file, as a fraction of the binary file, past which
+     * the whole network is saved instead.
+     */
+    protected static final double COMPACT_FRACTION = 0.5;
+
+    /**
+     * Snapshot of the network as last saved, updated by each checkpoint.
+     */
+    private Network snapshot;
+
+    /**
+     * Blocks of the snapshot's weights changed by the last checkpoint.
+     */
+    private boolean[][] changed;
+
+    /**
+     * pending - true while the snapshot is waiting to be written or being
+     * written. running - true until stopped. full - true if the whole
+     * network needs saving, because the snapshot is new or a save failed.
+     */
+    private boolean pending, running, full = true;
+
+    /**
+     * Thread that writes the snapshots.
+     */
+    private Thread writer;
+
+    /**
+     * saved - checkpoints written. deltas - checkpoints written to the delta
+     * file. skipped - checkpoints skipped because the last one was still
+     * being written. failed - checkpoints that could not be written.
+     * bytes - bytes written.
+     */
+    private long saved, deltas, skipped, failed, bytes;
+
+    /**
+     * stallTime - total nanoseconds the training thread spent copying.
+     * maxStall - longest copy. writeTime - total nanoseconds writing.
+     * maxWrite - longest write.
+     */
+    private long stallTime, maxStall, writeTime, maxWrite;
+
+    /**
+     * Nanoseconds the training thread spent copying in the last checkpoint.
+     */
+    private long lastStall;
+
+    /**
+     * lastChanged - blocks of weights changed in the last checkpoint.
+     * blocks - blocks of weights in the network.
+     */
+    private int lastChanged, blocks;
+
+    /**
+     * Reads what is saved of a network, to find what changes from it, and
+     * starts the writer thread. If nothing can be read the first checkpoint
+     * saves the whole network.
+     *
+     * @param net the network
+     */
+    protected void start(final Network net) {
+        if (net.isBinary()) {
+            try {
+                snapshot = net.snapshot(null);
+                snapshot.load();
+                setSnapshot(snapshot);
+                full = false;
+            } catch (IOException ex) {
+                System.err.println("Saving the whole network first: " + ex);
+                snapshot = null;
+            }
+        }
+
+        running = true;
+        writer = new Thread(this::write, "checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Sets the snapshot and makes the arrays to mark its changed blocks.
+     *
+     * @param s the snapshot
+     */
+    private void setSnapshot(final Network s) {
+        snapshot = s;
+        changed = NetworkFile.blocks(s);
+        blocks = 0;
+        for (boolean[] matrix : changed) {
+            blocks += matrix.length;
+        }
+    }
+
+    /**
+     * Writes the checkpoint waiting to be written, if there is one, and
+     * stops the writer thread.
+     */
+    protected void stop() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the snapshot being written, then has the network's final
+     * weights saved and stops the writer thread once they are. Used after
+     * training ends, so the last changes are not lost to a skipped or stale
+     * checkpoint.
+     *
+     * @param net the network
+     * @return true if the final weights were saved
+     */
+    protected boolean finish(final Network net) {
+        synchronized (this) {
+            while (pending) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!pending) {
+                checkpoint(net);
+            }
+        }
+        stop();
+
+        synchronized (this) {
+            return !pending && !full;
+        }
+    }
+
+    /**
+     * Copies what changed in a network into the snapshot and has it saved,
+     * unless the last snapshot is still being saved.
+     *
+     * @param net the network
+     * @return true if the copy will be saved, false if it was skipped
+     */
+    protected synchronized boolean checkpoint(final Network net) {
+        if (pending) {
+            skipped++;
+            return false;
+        }
+
+        long start = System.nanoTime();
+        if (snapshot != null && snapshot.isShapeOf(net)) {
+            lastChanged = net.snapshotChanges(snapshot,
+                    NetworkFile.DELTA_BLOCK, changed);
+        } else {
+            setSnapshot(net.snapshot(snapshot));
+            lastChanged = blocks;
+            full = true;
+        }
+        lastStall = System.nanoTime() - start;
+        stallTime += lastStall;
+        maxStall = Math.max(maxStall, lastStall);
+
+        pending = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Writes snapshots until stopped.
+     */
+    private void write() {
+        while (true) {
+            boolean whole;
+            long deltaSize;
+            synchronized (this) {
+                while (!pending && running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (!pending) {
+                    return;
+                }
+                whole = full || !snapshot.isBinary();
+                deltaSize = (long) lastChanged * NetworkFile.DELTA_BLOCK
+                        * (snapshot.isSinglePrecision() ? Float.BYTES
+                        : Double.BYTES);
+            }
+
+            //The snapshot is not touched by checkpoint until pending is
+            //cleared, so it is written without holding the lock
+            long start = System.nanoTime();
+            long written = 0;
+            boolean ok = true;
+            try {
+                File base = NetworkFile.getFile(snapshot.getNetName());
+                File delta = NetworkFile.getDeltaFile(snapshot.getNetName());
+                whole = whole || !base.exists() || delta.length()
+                        + deltaSize > base.length() * COMPACT_FRACTION;
+
+                if (whole) {
+                    snapshot.save();
+                    written = snapshot.isBinary() ? base.length()
+                            : new File("networks/" + snapshot.getNetName()
+                                    + ".csv").length();
+                } else {
+                    written = NetworkFile.appendDelta(snapshot, changed);
+                }
+            } catch (IOException ex) {
+                System.err.println("Checkpoint not saved: " + ex);
+                ok = false;
+            }
+            long time = System.nanoTime() - start;
+
+            synchronized (this) {
+                if (ok) {
+                    saved++;
+                    deltas += whole ? 0 : 1;
+                    bytes += written;
+                } else {
+                    failed++;
+                }
+                //Changes that failed to save are only in the snapshot now
+                full = !ok;
+                writeTime += time;
+                maxWrite = Math.max(maxWrite, time);
+                pending = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of checkpoints written.
+     *
+     * @return checkpoints written
+     */
+    protected synchronized long getSaved() {
+        return saved;
+    }
+
+    /**
+     * Returns how long the training thread stalled copying in the last
+     * checkpoint.
+     *
+     * @return stall in nanoseconds
+     */
+    protected synchronized long getLastStall() {
+        return lastStall;
+    }
+
+    /**
+     * Returns how many blocks of weights changed in the last checkpoint.
+     *
+     * @return blocks changed
+     */
+    protected synchronized int getLastChanged() {
+        return lastChanged;
+    }
+
+    /**
+     * Returns how many blocks of weights the network has.
+     *
+     * @return blocks
+     */
+    protected synchronized int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns a line with the counters: checkpoints saved, how many were
+     * deltas, skipped and failed, the average and longest time the training
+     * thread stalled copying, the average and longest write, and the
+     * megabytes written.
+     *
+     * @return the counters
+     */
+    protected synchronized String getStats() {
+        long copies = Math.max(1, saved + failed + (pending ? 1 : 0));
+        double written = 1e6 * Math.max(1, saved + failed);
+        return String.format("saved %d (%d deltas), skipped %d, failed %d, "
+                + "stall %.2f ms (longest %.2f), write %.1f ms (longest "
+                + "%.1f), %.1f MB written", saved, deltas, skipped, failed,
+                stallTime / (1e6 * copies), maxStall / 1e6,
+                writeTime / written, maxWrite / 1e6, bytes / 1e6);
+    }
+}
@@ -0,0 +1,638 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads network CSV files a cell at a time out of a reused byte buffer,
+ * parsing numbers straight from the bytes into the weight arrays instead of
+ * making a String for every cell and row the way opencsv's CSVReader does.
+ *
+ * Short numbers are parsed with Clinger's fast path: when the digits fit
+ * in 53 bits and the power of ten is at most 22, both are exact doubles and
+ * one multiply or divide rounds the result correctly. Longer ones, like the
+ * 17 digits most doubles are written with, are parsed by Decimals. Anything
+ * neither is sure of, such as quoted cells, NaN or a number too close to
+ * halfway between two doubles, goes to Double.parseDouble, so every number
+ * reads back to the same bits it was written from. Cells may be quoted the
+ * way opencsv writes them and rows may end in \r\n.
+ *
+ * @author Nick Vocaire
+ */
+final class CsvReader implements Closeable {
+
+    /**
+     * Starting size of the buffer, which grows to fit the longest row that
+     * has its cells counted.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Largest mantissa that, like every whole number below it, is an exact
+     * double.
+     */
+    private static final long EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * Powers of ten that are exact doubles, 1e0 to 1e22.
+     */
+    private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+        1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+        1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * File read, for error messages.
+     */
+    private final File file;
+
+    /**
+     * Stream the file is read from.
+     */
+    private final InputStream in;
+
+    /**
+     * Bytes read and not yet parsed, from position to limit.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * position - next byte to parse. limit - end of the bytes read.
+     * line - line of the file being read, from 1.
+     */
+    private int position, limit, line;
+
+    /**
+     * eof - true once the stream has no more bytes. rowEnded - true if the
+     * last cell read was the last of its row.
+     */
+    private boolean eof, rowEnded;
+
+    /**
+     * Constructor for reading a file.
+     *
+     * @param f the file
+     * @throws IOException if the file can not be opened
+     */
+    protected CsvReader(final File f) throws IOException {
+        this(f, 0, 1);
+    }
+
+    /**
+     * Constructor for reading a file from the start of one of its lines,
+     * so parts of a file can be read at once.
+     *
+     * @param f the file
+     * @param offset byte the line starts at
+     * @param first number of the line, from 1, for error messages
+     * @throws IOException if the file can not be opened
+     */
+    protected CsvReader(final File f, final long offset, final int first)
+            throws IOException {
+        file = f;
+        FileInputStream stream = new FileInputStream(f);
+        try {
+            stream.getChannel().position(offset);
+        } catch (IOException ex) {
+            stream.close();
+            throw ex;
+        }
+        in = stream;
+        line = first;
+    }
+
+    /**
+     * Finds where every line of a file starts in one pass over its bytes,
+     * skipping line breaks inside quoted cells.
+     *
+     * @param f the file
+     * @return the byte each line starts at, then the length of the file
+     * @throws IOException if the file can not be read
+     */
+    protected static long[] index(final File f) throws IOException {
+        long[] starts = new long[1024];
+        int lines = 1;
+        long offset = 0;
+        boolean quoted = false;
+        boolean cr = false;
+
+        try (InputStream stream = new FileInputStream(f)) {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            for (int read; (read = stream.read(bytes)) > 0;
+                    offset += read) {
+                //A \r at the end of the last read ends a line on its own
+                //unless this read starts with the \n after it
+                if (cr && bytes[0] != '\n') {
+                    starts = add(starts, lines++, offset);
+                }
+                cr = false;
+
+                ByteBuffer words = ByteBuffer.wrap(bytes);
+                for (int i = 0; i < read; i++) {
+                    //Digits, points and commas all come after the quote and
+                    //line breaks, so eight bytes at a time are skipped if
+                    //none of them is below 0x23
+                    if ((i & 7) == 0 && i + 8 <= read) {
+                        long x = words.getLong(i);
+                        if (((x - 0x2323232323232323L) & ~x
+                                & 0x8080808080808080L) == 0) {
+                            i += 7;
+                            continue;
+                        }
+                    }
+                    byte b = bytes[i];
+                    if (b > '"') {
+                        continue;
+                    }
+                    if (b == '"') {
+                        quoted = !quoted;
+                    } else if (!quoted && b == '\n') {
+                        starts = add(starts, lines++, offset + i + 1);
+                    } else if (!quoted && b == '\r') {
+                        if (i + 1 == read) {
+                            cr = true;
+                        } else if (bytes[i + 1] != '\n') {
+                            starts = add(starts, lines++, offset + i + 1);
+                        }
+                    }
+                }
+            }
+        }
+        if (cr) {
+            starts = add(starts, lines++, offset);
+        }
+
+        //A line break at the very end does not start another line
+        if (lines > 1 && starts[lines - 1] == offset) {
+            lines--;
+        }
+        starts = add(starts, lines++, offset);
+        return Arrays.copyOf(starts, lines);
+    }
+
+    /**
+     * Puts a number in an array, doubling the array if it is full.
+     *
+     * @param array the array
+     * @param index where the number goes
+     * @param value the number
+     * @return the array, or the bigger copy of it
+     */
+    private static long[] add(final long[] array, final int index,
+            final long value) {
+        long[] to = index < array.length ? array
+                : Arrays.copyOf(array, array.length * 2);
+        to[index] = value;
+        return to;
+    }
+
+    /**
+     * Reads every cell of the next row as text.
+     *
+     * @return the cells, null at the end of the file
+     * @throws IOException if the file can not be read
+     */
+    protected String[] readRow() throws IOException {
+        if (position == limit && !fill()) {
+            return null;
+        }
+
+        List<String> cells = new ArrayList<>();
+        do {
+            cells.add(readString());
+        } while (!rowEnded);
+        rowEnded = false;
+        return cells.toArray(new String[cells.size()]);
+    }
+
+    /**
+     * Reads the next cell as text.
+     *
+     * @return the cell
+     * @throws IOException if the file can not be read
+     */
+    protected String readString() throws IOException {
+        if (position < limit || fill()) {
+            if (buffer[position] == '"') {
+                return readQuoted();
+            }
+        }
+        int end = cellEnd();
+        String s = new String(buffer, position, end - position,
+                StandardCharsets.UTF_8);
+        finishCell(end);
+        return s;
+    }
+
+    /**
+     * Reads the next cell as a double.
+     *
+     * @return the double
+     * @throws IOException if the file can not be read or the cell is not a
+     * number
+     */
+    protected double readDouble() throws IOException {
+        if ((position < limit || fill()) && buffer[position] == '"') {
+            return parseSlow(readQuoted());
+        }
+        int end = cellEnd();
+        double v = parseDouble(position, end);
+        finishCell(end);
+        return v;
+    }
+
+    /**
+     * Reads the next cell as a float.
+     *
+     * @return the float
+     * @throws IOException if the file can not be read or the cell is not a
+     * number
+     */
+    protected float readFloat() throws IOException {
+        if ((position < limit || fill()) && buffer[position] == '"') {
+            return (float) parseSlow(readQuoted(), true);
+        }
+        int end = cellEnd();
+        float v = parseFloat(position, end);
+        finishCell(end);
+        return v;
+    }
+
+    /**
+     * Reads the next row into a row of a matrix, as floats for single
+     * precision matrices.
+     *
+     * @param m the matrix
+     * @param r the row
+     * @throws IOException if the file can not be read, or the row does not
+     * have one number for each column
+     */
+    protected void readRow(final Matrix m, final int r) throws IOException {
+        int columns = m.getColumns();
+        int from = r * columns;
+
+        for (int c = 0; c < columns; c++) {
+            if (c > 0 && rowEnded) {
+                throw error("has " + c + " weights, not " + columns);
+            }
+            if (m.isSingle()) {
+                m.getFloats()[from + c] = readFloat();
+            } else {
+                m.getData()[from + c] = readDouble();
+            }
+        }
+        if (!rowEnded) {
+            throw error("has more than " + columns + " weights");
+        }
+        rowEnded = false;
+    }
+
+    /**
+     * Skips the rest of the current row.
+     *
+     * @throws IOException if the file can not be read
+     */
+    protected void endRow() throws IOException {
+        while (!rowEnded) {
+            readString();
+        }
+        rowEnded = false;
+    }
+
+    /**
+     * Counts the cells of the next row without reading it.
+     *
+     * @return number of cells
+     * @throws IOException if the file can not be read
+     */
+    protected int countCells() throws IOException {
+        int cells = 1;
+        boolean quoted = false;
+
+        for (int i = position;; i++) {
+            if (i == limit) {
+                int scanned = i - position;
+                if (!fill()) {
+                    return cells;
+                }
+                i = position + scanned;
+            }
+            byte b = buffer[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (!quoted && b == ',') {
+                cells++;
+            } else if (!quoted && (b == '\n' || b == '\r')) {
+                return cells;
+            }
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if it can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Finds the end of an unquoted cell, reading more of the file until it
+     * is all in the buffer.
+     *
+     * @return index of the comma or line break after the cell, or limit at
+     * the end of the file
+     * @throws IOException if the file can not be read
+     */
+    private int cellEnd() throws IOException {
+        for (int i = position;; i++) {
+            if (i == limit) {
+                int scanned = i - position;
+                if (!fill()) {
+                    return limit;
+                }
+                i = position + scanned;
+            }
+            byte b = buffer[i];
+            if (b == ',' || b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Moves past a cell and the comma or line break after it.
+     *
+     * @param end index of the comma or line break, or limit
+     * @throws IOException if the file can not be read
+     */
+    private void finishCell(final int end) throws IOException {
+        position = end;
+        if (position == limit) {
+            rowEnded = true;
+            return;
+        }
+
+        byte b = buffer[position++];
+        rowEnded = b != ',';
+        if (rowEnded) {
+            line++;
+            if (b == '\r' && (position < limit || fill())
+                    && buffer[position] == '\n') {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Reads a quoted cell, where two quotes stand for one.
+     *
+     * @return the cell without its quotes
+     * @throws IOException if the file can not be read
+     */
+    private String readQuoted() throws IOException {
+        ByteArrayOutputStream cell = new ByteArrayOutputStream();
+        position++;
+
+        while (true) {
+            if (position == limit && !fill()) {
+                throw error("ends inside a quoted cell");
+            }
+            byte b = buffer[position++];
+            if (b == '"') {
+                if ((position < limit || fill()) && buffer[position] == '"') {
+                    position++;
+                } else {
+                    break;
+                }
+            } else if (b == '\n') {
+                line++;
+            }
+            cell.write(b);
+        }
+
+        //Anything between the closing quote and the comma is kept
+        int end = cellEnd();
+        cell.write(buffer, position, end - position);
+        finishCell(end);
+        return new String(cell.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a double from bytes of the buffer.
+     *
+     * @param start first byte
+     * @param end byte after the last
+     * @return the double
+     * @throws IOException if the bytes are not a number
+     */
+    private double parseDouble(final int start, final int end)
+            throws IOException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            int b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa != 0 || b != '0') {
+                    //More digits than a long holds are left to parseDouble
+                    if (++digits > 18) {
+                        return parseSlow(start, end, false);
+                    }
+                    mantissa = mantissa * 10 + b - '0';
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+
+        if (any && i < end && (buffer[i] == 'E' || buffer[i] == 'e')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            int e = 0;
+            int first = i;
+            for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'
+                    && e < 1000; i++) {
+                e = e * 10 + buffer[i] - '0';
+            }
+            if (i == first) {
+                any = false;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if (!any || i != end) {
+            return parseSlow(start, end, false);
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+
+        double v;
+        if (mantissa <= EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            v = exponent < 0 ? mantissa / POWERS[-exponent]
+                    : mantissa * POWERS[exponent];
+        } else {
+            v = Decimals.parse(mantissa, exponent);
+            if (Double.isNaN(v)) {
+                return parseSlow(start, end, false);
+            }
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Parses a float from bytes of the buffer. A double parsed with the fast
+     * path rounds to the same float as the digits would unless it lands
+     * exactly halfway between two floats, or below the smallest normal
+     * float where floats have fewer bits, which are left to parseFloat.
+     *
+     * @param start first byte
+     * @param end byte after the last
+     * @return the float
+     * @throws IOException if the bytes are not a number
+     */
+    private float parseFloat(final int start, final int end)
+            throws IOException {
+        double v = parseDouble(start, end);
+        float f = (float) v;
+
+        //Halfway between floats has a one and 28 zeros below the float bits
+        long bits = Double.doubleToRawLongBits(v);
+        if ((bits & 0x1FFFFFFFL) == 0x10000000L && !Float.isInfinite(f)
+                || v != 0 && Math.abs(v) < Float.MIN_NORMAL) {
+            return (float) parseSlow(start, end, true);
+        }
+        return f;
+    }
+
+    /**
+     * Parses a number from bytes of the buffer with the library.
+     *
+     * @param start first byte
+     * @param end byte after the last
+     * @param single true to parse it as a float
+     * @return the number
+     * @throws IOException if the bytes are not a number
+     */
+    private double parseSlow(final int start, final int end,
+            final boolean single) throws IOException {
+        return parseSlow(new String(buffer, start, end - start,
+                StandardCharsets.ISO_8859_1), single);
+    }
+
+    /**
+     * Parses a double from text with the library.
+     *
+     * @param s the text
+     * @return the double
+     * @throws IOException if the text is not a number
+     */
+    private double parseSlow(final String s) throws IOException {
+        return parseSlow(s, false);
+    }
+
+    /**
+     * Parses a number from text with the library.
+     *
+     * @param s the text
+     * @param single true to parse it as a float
+     * @return the number
+     * @throws IOException if the text is not a number
+     */
+    private double parseSlow(final String s, final boolean single)
+            throws IOException {
+        try {
+            return single ? Float.parseFloat(s) : Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            throw error("has " + s + " where a number should be");
+        }
+    }
+
+    /**
+     * Makes an error about the line being read.
+     *
+     * @param message what is wrong with the line
+     * @return the error
+     */
+    private IOException error(final String message) {
+        return new IOException(file + " line " + line + " " + message);
+    }
+
+    /**
+     * Moves the bytes not yet parsed to the start of the buffer, growing it
+     * if they fill it, and reads more of the file after them.
+     *
+     * @return false if the file has no more bytes
+     * @throws IOException if the file can not be read
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        int kept = limit - position;
+        if (kept == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, bigger, 0, kept);
+            buffer = bigger;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, kept);
+        }
+        position = 0;
+        limit = kept;
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
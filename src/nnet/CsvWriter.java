@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes network CSV files a cell at a time into a reused byte buffer,
+ * writing the same bytes opencsv's CSVWriter did with quotes only where
+ * needed: cells separated by commas, rows ended by a newline, and a cell
+ * quoted only if it has a comma, quote or line break in it.
+ *
+ * Numbers are formatted by Decimals straight into the buffer as the
+ * shortest decimal that reads back to the same bits, laid out the way
+ * String.valueOf does.
+ *
+ * @author Nick Vocaire
+ */
+final class CsvWriter implements Closeable {
+
+    /**
+     * Bytes collected before they are written.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Stream the file is written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * Bytes collected to be written.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Bytes in the buffer.
+     */
+    private int count;
+
+    /**
+     * True if a cell has been written in the current row.
+     */
+    private boolean inRow;
+
+    /**
+     * Constructor for writing a file, replacing what was there.
+     *
+     * @param file the file
+     * @throws IOException if the file can not be opened
+     */
+    protected CsvWriter(final File file) throws IOException {
+        out = new FileOutputStream(file);
+    }
+
+    /**
+     * Writes a cell of text, quoting it if it needs to be.
+     *
+     * @param s the text
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void writeCell(final String s) throws IOException {
+        separate();
+        //Text is only in the few rows around the weights, so it is encoded
+        //the simple way
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        boolean quote = false;
+        for (byte b : bytes) {
+            quote |= b == ',' || b == '"' || b == '\n' || b == '\r';
+        }
+
+        if (quote) {
+            put((byte) '"');
+        }
+        for (byte b : bytes) {
+            if (b == '"') {
+                put(b);
+            }
+            put(b);
+        }
+        if (quote) {
+            put((byte) '"');
+        }
+    }
+
+    /**
+     * Writes a cell with a whole number.
+     *
+     * @param v the number
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void writeCell(final long v) throws IOException {
+        writeCell(Long.toString(v));
+    }
+
+    /**
+     * Writes a cell with a double.
+     *
+     * @param v the double
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void writeCell(final double v) throws IOException {
+        separate();
+        makeRoom();
+        count = Decimals.write(v, buffer, count);
+    }
+
+    /**
+     * Writes a cell with a float.
+     *
+     * @param v the float
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void writeCell(final float v) throws IOException {
+        separate();
+        makeRoom();
+        count = Decimals.write(v, buffer, count);
+    }
+
+    /**
+     * Writes a row of a matrix as a row of cells, as floats for single
+     * precision matrices, and ends the row.
+     *
+     * @param m the matrix
+     * @param r the row
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void writeRow(final Matrix m, final int r) throws IOException {
+        int from = r * m.getColumns();
+        int to = from + m.getColumns();
+
+        if (m.isSingle()) {
+            float[] floats = m.getFloats();
+            for (int i = from; i < to; i++) {
+                writeCell(floats[i]);
+            }
+        } else {
+            double[] data = m.getData();
+            for (int i = from; i < to; i++) {
+                writeCell(data[i]);
+            }
+        }
+        endRow();
+    }
+
+    /**
+     * Ends the current row.
+     *
+     * @throws IOException if the buffer could not be written to make room
+     */
+    protected void endRow() throws IOException {
+        put((byte) '\n');
+        inRow = false;
+    }
+
+    /**
+     * Writes what is left in the buffer and closes the file.
+     *
+     * @throws IOException if it can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write(buffer, 0, count);
+            count = 0;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a comma if the cell is not the first of the row.
+     *
+     * @throws IOException if the buffer could not be written to make room
+     */
+    private void separate() throws IOException {
+        if (inRow) {
+            put((byte) ',');
+        }
+        inRow = true;
+    }
+
+    /**
+     * Writes the buffer out if a number might not fit after what is in it.
+     *
+     * @throws IOException if the buffer could not be written
+     */
+    private void makeRoom() throws IOException {
+        if (count + Decimals.MAX_LENGTH > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Adds a byte to the buffer.
+     *
+     * @param b the byte
+     * @throws IOException if the buffer could not be written to make room
+     */
+    private void put(final byte b) throws IOException {
+        if (count == buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        buffer[count++] = b;
+    }
+}
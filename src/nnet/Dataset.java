@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Samples recorded by DatasetRecorder, read through a memory map so only
+ * the pages used are read from disk and nothing is copied onto the heap.
+ *
+ * Files over 2 GB are mapped in several pieces, each holding whole samples.
+ * A sample's key is matched to a network's outputs by name, so the file
+ * works with any network with the same inputs and keys.
+ *
+ * @author Nick Vocaire
+ */
+final class Dataset {
+
+    /**
+     * Largest piece of the file mapped at once.
+     */
+    private static final long MAP_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Pieces of the file, each holding samplesPerMap samples.
+     */
+    private final MappedByteBuffer[] maps;
+
+    /**
+     * inputs - input values in each sample. sampleSize - bytes in each
+     * sample. samplesPerMap - samples in each piece. size - samples in the
+     * file.
+     */
+    private final int inputs, sampleSize, samplesPerMap, size;
+
+    /**
+     * Output neuron of the network for each key of the file, -1 for keys
+     * the network does not have.
+     */
+    private final int[] outputs;
+
+    /**
+     * Constructor for reading the samples of a file for a network.
+     *
+     * @param file the file
+     * @param net the network, whose inputs must match the file's
+     * @throws IOException if the file can not be read or is not a dataset
+     * of the network's inputs
+     */
+    protected Dataset(final File file, final Network net) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(length, 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.remaining() < 4 * Integer.BYTES
+                    || header.getInt() != DatasetRecorder.MAGIC) {
+                throw new IOException(file + " is not a dataset");
+            }
+            int version = header.getInt();
+            if (version != DatasetRecorder.VERSION) {
+                throw new IOException(file + " is dataset version " + version);
+            }
+
+            inputs = header.getInt();
+            if (inputs != net.getInputSize()) {
+                throw new IOException(file + " has " + inputs
+                        + " inputs, the network has " + net.getInputSize());
+            }
+
+            outputs = new int[header.getInt()];
+            for (int k = 0; k < outputs.length; k++) {
+                byte[] name = new byte[header.getShort()];
+                header.get(name);
+                outputs[k] = net.getOutputIndex(new String(name,
+                        StandardCharsets.UTF_8));
+            }
+
+            sampleSize = DatasetRecorder.sampleSize(inputs);
+            long start = header.position();
+            long samples = (length - start) / sampleSize;
+            size = (int) Math.min(Integer.MAX_VALUE, samples);
+
+            samplesPerMap = (int) (MAP_SIZE / sampleSize);
+            maps = new MappedByteBuffer[(size + samplesPerMap - 1)
+                    / samplesPerMap];
+            for (int m = 0; m < maps.length; m++) {
+                long first = (long) m * samplesPerMap;
+                long count = Math.min(samplesPerMap, size - first);
+                maps[m] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start + first * sampleSize, count * sampleSize);
+                maps[m].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return number of samples
+     */
+    protected int getSize() {
+        return size;
+    }
+
+    /**
+     * Copies the input values of a sample as they are stored, one unsigned
+     * byte each.
+     *
+     * @param index the sample
+     * @param bytes array to copy the input values to
+     * @param offset index of the first input in bytes
+     */
+    protected void readInputs(final int index, final byte[] bytes,
+            final int offset) {
+        ByteBuffer map = maps[index / samplesPerMap].duplicate();
+        map.position((index % samplesPerMap) * sampleSize);
+        map.get(bytes, offset, inputs);
+    }
+
+    /**
+     * Returns the output neuron of the key of a sample.
+     *
+     * @param index the sample
+     * @return the output neuron, -1 if none or the network does not have it
+     */
+    protected int readKey(final int index) {
+        MappedByteBuffer map = maps[index / samplesPerMap];
+        int key = map.getShort((index % samplesPerMap) * sampleSize + inputs);
+        return key >= 0 && key < outputs.length ? outputs[key] : -1;
+    }
+
+    /**
+     * Returns the reward of a sample.
+     *
+     * @param index the sample
+     * @return the reward
+     */
+    protected double readReward(final int index) {
+        MappedByteBuffer map = maps[index / samplesPerMap];
+        return map.getFloat((index % samplesPerMap) * sampleSize + inputs
+                + Short.BYTES);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends training samples (input values, key pressed and reward) to a
+ * binary file, so a network can be trained on them later as fast as the
+ * processor allows instead of as fast as the game runs.
+ *
+ * The file is little-endian. It starts with a header: MAGIC, VERSION, the
+ * number of inputs, the number of keys, then each key's name as a short
+ * length and UTF-8 bytes. Each sample after it is the inputs as one
+ * unsigned byte each, since they are 0 to 255 gray values, the key's index
+ * as a short (-1 for none) and the reward as a float. A file that already
+ * has samples for the same inputs and keys is added to.
+ *
+ * Samples are copied into one of a fixed number of buffers and written by
+ * a background thread through a file channel. When every buffer is waiting
+ * to be written the sample is dropped, so recording never holds up the
+ * thread capturing frames.
+ *
+ * @author Nick Vocaire
+ */
+final class DatasetRecorder {
+
+    /**
+     * First int of a dataset file, "NNDS" in ASCII.
+     */
+    protected static final int MAGIC = 0x53444E4E;
+
+    /**
+     * Version of the file layout.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Samples that can wait to be written before new ones are dropped.
+     */
+    private static final int BUFFERS = 256;
+
+    /**
+     * Bytes written to the file at once.
+     */
+    private static final int WRITE_SIZE = 1 << 20;
+
+    /**
+     * Channel of the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Bytes in each sample.
+     */
+    private final int sampleSize;
+
+    /**
+     * Buffers free to fill, and filled buffers waiting to be written.
+     */
+    private final BlockingQueue<ByteBuffer> free, filled;
+
+    /**
+     * Samples collected to be written together.
+     */
+    private final ByteBuffer out;
+
+    /**
+     * Thread writing the samples.
+     */
+    private final Thread writer;
+
+    /**
+     * True until the recorder is closed.
+     */
+    private volatile boolean open = true;
+
+    /**
+     * written - samples written. dropped - samples dropped since every
+     * buffer was full.
+     */
+    private volatile long written, dropped;
+
+    /**
+     * Error the writer stopped on, null if none.
+     */
+    private volatile IOException error;
+
+    /**
+     * Constructor for recording samples of a network to a file, adding to it
+     * if it is already a dataset of the network's inputs and keys.
+     *
+     * @param file the file
+     * @param net the network
+     * @throws IOException if the file can not be opened or holds another
+     * network's samples
+     */
+    protected DatasetRecorder(final File file, final Network net)
+            throws IOException {
+        sampleSize = sampleSize(net.getInputSize());
+        ByteBuffer header = header(net);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if (channel.size() == 0) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } else {
+                ByteBuffer existing = ByteBuffer.allocate(header.remaining());
+                while (existing.hasRemaining()
+                        && channel.read(existing) >= 0) {
+                    //Read the whole header
+                }
+                existing.flip();
+                if (!existing.equals(header)) {
+                    throw new IOException(file + " holds samples of "
+                            + "another network");
+                }
+            }
+
+            //Only whole samples are added to
+            long samples = (channel.size() - header.capacity()) / sampleSize;
+            channel.position(header.capacity() + samples * sampleSize);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        free = new ArrayBlockingQueue<>(BUFFERS);
+        filled = new ArrayBlockingQueue<>(BUFFERS);
+        for (int b = 0; b < BUFFERS; b++) {
+            free.add(ByteBuffer.allocate(sampleSize)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        out = ByteBuffer.allocateDirect(Math.max(WRITE_SIZE, sampleSize));
+
+        writer = new Thread(this::write, "dataset writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the bytes in each sample.
+     *
+     * @param inputs number of inputs
+     * @return bytes in a sample
+     */
+    protected static int sampleSize(final int inputs) {
+        return inputs + Short.BYTES + Float.BYTES;
+    }
+
+    /**
+     * Makes the header of a dataset of a network.
+     *
+     * @param net the network
+     * @return the header, ready to be written
+     */
+    protected static ByteBuffer header(final Network net) {
+        byte[][] names = new byte[net.getOutputSize()][];
+        int size = 4 * Integer.BYTES;
+        for (int o = 0; o < names.length; o++) {
+            names[o] = net.getOutputNeuron(o).getKeyName()
+                    .getBytes(StandardCharsets.UTF_8);
+            size += Short.BYTES + names[o].length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(net.getInputSize())
+                .putInt(names.length);
+        for (byte[] name : names) {
+            header.putShort((short) name.length).put(name);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Adds a sample to be written, or drops it if the writer is too far
+     * behind. Never waits.
+     *
+     * @param inputs input values, 0 to 255
+     * @param key index of the key pressed, -1 for none
+     * @param reward reward of the sample
+     * @return true if the sample will be written
+     */
+    protected boolean record(final double[] inputs, final int key,
+            final double reward) {
+        ByteBuffer sample = open ? free.poll() : null;
+        if (sample == null) {
+            dropped++;
+            return false;
+        }
+
+        sample.clear();
+        for (double input : inputs) {
+            sample.put((byte) Math.max(0, Math.min(255, (int) input)));
+        }
+        sample.putShort((short) key).putFloat((float) reward);
+        sample.flip();
+        filled.add(sample);
+        return true;
+    }
+
+    /**
+     * Writes samples until the recorder is closed and every sample is
+     * written.
+     */
+    private void write() {
+        try {
+            while (open || !filled.isEmpty()) {
+                ByteBuffer sample = filled.poll(100, TimeUnit.MILLISECONDS);
+
+                //Write what has been collected when there is a pause
+                if (sample == null) {
+                    flush();
+                    continue;
+                }
+
+                if (out.remaining() < sampleSize) {
+                    flush();
+                }
+                out.put(sample);
+                free.add(sample);
+                written++;
+            }
+            flush();
+        } catch (IOException ex) {
+            error = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the samples collected to the file.
+     *
+     * @throws IOException if they can not be written
+     */
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Writes every sample added and closes the file.
+     *
+     * @throws IOException if a sample could not be written
+     */
+    protected void close() throws IOException {
+        open = false;
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns the number of samples written.
+     *
+     * @return samples written
+     */
+    protected long getWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the number of samples dropped because the writer was behind.
+     *
+     * @return samples dropped
+     */
+    protected long getDropped() {
+        return dropped;
+    }
+}
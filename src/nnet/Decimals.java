@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.math.BigInteger;
+
+/**
+ * Converts doubles and floats to and from decimal text without making
+ * Strings, for the CSV reader and writer.
+ *
+ * Numbers are written with Giulietti's Schubfach algorithm, which picks the
+ * shortest decimal that reads back to the same bits, and the one closest to
+ * the number if there are a few. The text is laid out like Double.toString
+ * and Float.toString, and is the same text they give from Java 19 on. Older
+ * Java sometimes gave a longer decimal, such as 2.0E-3 as 0.0020, which
+ * still reads back to the same bits.
+ *
+ * Long decimals are read by multiplying their digits by 10^q kept to 126
+ * bits. The product is only an estimate, so the double it rounds to is
+ * used only if both ends of its error round to the same double, and
+ * anything closer than that to halfway is left to Double.parseDouble.
+ *
+ * Both use the same table of powers of ten.
+ *
+ * @author Nick Vocaire
+ */
+final class Decimals {
+
+    /**
+     * Smallest and largest k with 10^-k in the table.
+     */
+    private static final int K_MIN = -324, K_MAX = 292;
+
+    /**
+     * Lower 63 bits of a long.
+     */
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    /**
+     * 10^-k for each k in K_MIN to K_MAX as g = floor(b) + 1 where 10^-k is
+     * b 2^r with 2^125 &lt;= b &lt; 2^126, split into its higher 63 bits at
+     * 2(k - K_MIN) and its lower 63 bits after them.
+     */
+    private static final long[] G = new long[(K_MAX - K_MIN + 1) * 2];
+
+    /**
+     * Powers of ten that fit in a long.
+     */
+    private static final long[] POWERS = new long[19];
+
+    /**
+     * Longest text a double is written as, -1.2345678901234567E-308.
+     */
+    protected static final int MAX_LENGTH = 24;
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(
+                BigInteger.ONE);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            BigInteger b;
+            if (k <= 0) {
+                BigInteger p = BigInteger.TEN.pow(-k);
+                int r = p.bitLength() - 126;
+                b = r >= 0 ? p.shiftRight(r) : p.shiftLeft(-r);
+            } else {
+                //floor(2^s / 10^k), in [2^125, 2^126) as 10^k is between
+                //powers of two
+                BigInteger p = BigInteger.TEN.pow(k);
+                int s = 125 + p.bitLength();
+                b = BigInteger.ONE.shiftLeft(s).divide(p);
+            }
+            BigInteger g = b.add(BigInteger.ONE);
+            G[k - K_MIN << 1] = g.shiftRight(63).longValue();
+            G[(k - K_MIN << 1) + 1] = g.and(mask).longValue();
+        }
+
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Not made, it only has static methods.
+     */
+    private Decimals() {
+    }
+
+    /**
+     * Writes a double as ASCII text into a byte array, the way
+     * Double.toString lays it out.
+     *
+     * @param v the double
+     * @param out the array, with at least MAX_LENGTH bytes from index
+     * @param index where to start writing
+     * @return index after the last byte written
+     */
+    protected static int write(final double v, final byte[] out,
+            final int index) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & (1L << 52) - 1;
+        int bq = (int) (bits >>> 52) & 0x7FF;
+
+        if (bq == 0x7FF) {
+            return special(t != 0 ? "NaN" : bits > 0 ? "Infinity"
+                    : "-Infinity", out, index);
+        }
+
+        int i = index;
+        if (bits < 0) {
+            out[i++] = '-';
+        }
+        if (bq != 0) {
+            //Normal, q = -mq
+            int mq = 1075 - bq;
+            long c = 1L << 52 | t;
+            //Whole numbers are written as they are
+            if (0 < mq && mq < 53 && (c >> mq << mq) == c) {
+                return chars(c >> mq, 0, out, i);
+            }
+            return decimal(-mq, c, 0, 1L << 52, -1074, out, i);
+        }
+        if (t != 0) {
+            //Subnormal, where the smallest need one more digit to be found
+            return t < 3 ? decimal(-1074, 10 * t, -1, 1L << 52, -1074, out, i)
+                    : decimal(-1074, t, 0, 1L << 52, -1074, out, i);
+        }
+        return special("0.0", out, i);
+    }
+
+    /**
+     * Writes a float as ASCII text into a byte array, the way
+     * Float.toString lays it out.
+     *
+     * @param v the float
+     * @param out the array, with at least MAX_LENGTH bytes from index
+     * @param index where to start writing
+     * @return index after the last byte written
+     */
+    protected static int write(final float v, final byte[] out,
+            final int index) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & (1 << 23) - 1;
+        int bq = bits >>> 23 & 0xFF;
+
+        if (bq == 0xFF) {
+            return special(t != 0 ? "NaN" : bits > 0 ? "Infinity"
+                    : "-Infinity", out, index);
+        }
+
+        int i = index;
+        if (bits < 0) {
+            out[i++] = '-';
+        }
+        if (bq != 0) {
+            int mq = 150 - bq;
+            long c = 1L << 23 | t;
+            if (0 < mq && mq < 24 && (c >> mq << mq) == c) {
+                return chars(c >> mq, 0, out, i);
+            }
+            return decimal(-mq, c, 0, 1L << 23, -149, out, i);
+        }
+        if (t != 0) {
+            return t < 8 ? decimal(-149, 10L * t, -1, 1L << 23, -149, out, i)
+                    : decimal(-149, t, 0, 1L << 23, -149, out, i);
+        }
+        return special("0.0", out, i);
+    }
+
+    /**
+     * Reads the double closest to a decimal when it can be sure of it.
+     *
+     * @param w the digits, below 2^63
+     * @param q the power of ten they are multiplied by
+     * @return the double, or NaN if it is too close to halfway between two
+     * doubles, too big, too small to be normal, or q is out of the table
+     */
+    protected static double parse(final long w, final int q) {
+        if (w <= 0 || -q < K_MIN || -q > K_MAX) {
+            return Double.NaN;
+        }
+
+        //w 10^q is in [w g1 - 1, w g1 + w) times 2^e
+        int e = flog2pow10(q) - 125 + 63;
+        long g1 = G[-q - K_MIN << 1];
+        long high = multiplyHigh(w, g1);
+        long low = w * g1;
+
+        long lowerHigh = low == 0 ? high - 1 : high;
+        long lowerLow = low - 1;
+        long upperLow = low + w - 1;
+        long upperHigh = Long.compareUnsigned(upperLow, low) < 0 ? high + 1
+                : high;
+
+        double lower = round(lowerHigh, lowerLow, e);
+        double upper = round(upperHigh, upperLow, e);
+        return lower == upper ? lower : Double.NaN;
+    }
+
+    /**
+     * Rounds a 128 bit number times a power of two to the nearest double.
+     *
+     * @param high higher 64 bits
+     * @param low lower 64 bits, the number being at least 2^54
+     * @param e the power of two
+     * @return the double, or NaN if it is not a normal double
+     */
+    private static double round(final long high, final long low,
+            final int e) {
+        int length = high != 0 ? 128 - Long.numberOfLeadingZeros(high)
+                : 64 - Long.numberOfLeadingZeros(low);
+        int shift = length - 54;
+        long top;
+        boolean sticky;
+        if (shift >= 64) {
+            top = high >>> shift - 64;
+            sticky = low != 0 || (high & (1L << shift - 64) - 1) != 0;
+        } else {
+            top = high << 64 - shift | low >>> shift;
+            sticky = (low & (1L << shift) - 1) != 0;
+        }
+
+        long m = top >>> 1;
+        if ((top & 1) != 0 && (sticky || (m & 1) != 0)) {
+            m++;
+        }
+        if (m == 1L << 53) {
+            m >>>= 1;
+            shift++;
+        }
+
+        int e2 = shift + 1 + e + 52;
+        if (e2 < -1022 || e2 > 1023) {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble((long) (e2 + 1023) << 52
+                | m & (1L << 52) - 1);
+    }
+
+    /**
+     * Finds the shortest decimal that reads back to c 2^q and writes it.
+     *
+     * @param q the power of two
+     * @param c the significand, times ten for the smallest subnormals
+     * @param dk minus one if c was multiplied by ten
+     * @param cMin the smallest normal significand
+     * @param qMin the power of two of subnormals
+     * @param out the array
+     * @param index where to start writing
+     * @return index after the last byte written
+     */
+    private static int decimal(final int q, final long c, final int dk,
+            final long cMin, final int qMin, final byte[] out,
+            final int index) {
+        int out1 = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        //Below a power of two the gap to the next smaller number is half
+        if (c != cMin || q == qMin) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G[k - K_MIN << 1];
+        long g0 = G[(k - K_MIN << 1) + 1];
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            //A decimal one digit shorter if one is in range
+            long sp10 = s / 10 * 10;
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out1 <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out1 <= vbr;
+            if (upin != wpin) {
+                return chars(upin ? sp10 : tp10, k, out, index);
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out1 <= s << 2;
+        boolean win = (t << 2) + out1 <= vbr;
+        if (uin != win) {
+            return chars(uin ? s : t, k + dk, out, index);
+        }
+        long cmp = vb - (s + t << 1);
+        return chars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk,
+                out, index);
+    }
+
+    /**
+     * Writes f 10^e: plainly from 10^-3 up to 10^7, and as d.dddEn
+     * otherwise, with at least one digit after the point.
+     *
+     * @param f the digits
+     * @param e the power of ten
+     * @param out the array
+     * @param index where to start writing
+     * @return index after the last byte written
+     */
+    private static int chars(final long f, final int e, final byte[] out,
+            final int index) {
+        long digits = f;
+        int exponent = e;
+        while (digits % 10 == 0) {
+            digits /= 10;
+            exponent++;
+        }
+        int length = 1;
+        while (length < POWERS.length && digits >= POWERS[length]) {
+            length++;
+        }
+        //The number is 0.ddd times 10^point
+        int point = exponent + length;
+
+        int i = index;
+        if (0 < point && point <= 7) {
+            digits(digits, length, out, i);
+            if (length <= point) {
+                for (int d = length; d < point; d++) {
+                    out[i + d] = '0';
+                }
+                i += point;
+                out[i++] = '.';
+                out[i++] = '0';
+            } else {
+                System.arraycopy(out, i + point, out, i + point + 1,
+                        length - point);
+                out[i + point] = '.';
+                i += length + 1;
+            }
+        } else if (-3 < point && point <= 0) {
+            out[i++] = '0';
+            out[i++] = '.';
+            for (int d = point; d < 0; d++) {
+                out[i++] = '0';
+            }
+            i = digits(digits, length, out, i);
+        } else {
+            //The first digit is moved in front of the point
+            digits(digits, length, out, i + 1);
+            out[i] = out[i + 1];
+            out[i + 1] = '.';
+            i += 2;
+            if (length == 1) {
+                out[i++] = '0';
+            } else {
+                i += length - 1;
+            }
+            out[i++] = 'E';
+            int n = point - 1;
+            if (n < 0) {
+                out[i++] = '-';
+                n = -n;
+            }
+            if (n >= 100) {
+                out[i++] = (byte) ('0' + n / 100);
+            }
+            if (n >= 10) {
+                out[i++] = (byte) ('0' + n / 10 % 10);
+            }
+            out[i++] = (byte) ('0' + n % 10);
+        }
+        return i;
+    }
+
+    /**
+     * Writes the digits of a number, last first.
+     *
+     * @param digits the number
+     * @param length how many digits it has
+     * @param out the array
+     * @param index where the first digit goes
+     * @return index after the last digit
+     */
+    private static int digits(final long digits, final int length,
+            final byte[] out, final int index) {
+        //Eight digits at a time are split off, as dividing ints is quicker
+        long rest = digits;
+        int i = index + length;
+        while (rest >= 100_000_000) {
+            int low = (int) (rest % 100_000_000);
+            rest /= 100_000_000;
+            for (int d = 0; d < 8; d++) {
+                out[--i] = (byte) ('0' + low % 10);
+                low /= 10;
+            }
+        }
+        int high = (int) rest;
+        while (i > index) {
+            out[--i] = (byte) ('0' + high % 10);
+            high /= 10;
+        }
+        return index + length;
+    }
+
+    /**
+     * Writes text that is not worked out, like NaN.
+     *
+     * @param s the text
+     * @param out the array
+     * @param index where to start writing
+     * @return index after the last byte written
+     */
+    private static int special(final String s, final byte[] out,
+            final int index) {
+        for (int c = 0; c < s.length(); c++) {
+            out[index + c] = (byte) s.charAt(c);
+        }
+        return index + s.length();
+    }
+
+    /**
+     * Works out g cp / 2^127 rounded to odd: the bits below the result
+     * being only set the last bit, so results can be compared exactly.
+     *
+     * @param g1 higher 63 bits of g
+     * @param g0 lower 63 bits of g
+     * @param cp the number g is multiplied by
+     * @return the result
+     */
+    private static long rop(final long g1, final long g0, final long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Higher 64 bits of the 128 bit product of two longs, what
+     * Math.multiplyHigh does from Java 9 on.
+     *
+     * @param x one long
+     * @param y the other long
+     * @return higher 64 bits of x y
+     */
+    private static long multiplyHigh(final long x, final long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /**
+     * floor(e log10(2)), for |e| up to 5456721.
+     *
+     * @param e the power of two
+     * @return the power of ten
+     */
+    private static int flog10pow2(final int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    /**
+     * floor(e log10(2) + log10(3/4)), for |e| up to 5456721.
+     *
+     * @param e the power of two
+     * @return the power of ten
+     */
+    private static int flog10threeQuartersPow2(final int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    /**
+     * floor(e log2(10)), for |e| up to 1838394.
+     *
+     * @param e the power of ten
+     * @return the power of two
+     */
+    private static int flog2pow10(final int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Where the network gets the frames of its region from: the screen, frames
+ * recorded earlier, or frames made up for testing without a display.
+ *
+ * @author Nick Vocaire
+ */
+interface FrameSource {
+
+    /**
+     * Returns the next frame of an area of the screen. The image may be
+     * reused by the next call, so it must be converted before then.
+     *
+     * @param area the area, in screen pixels
+     * @return the frame, as large as the area
+     */
+    BufferedImage capture(Rectangle area);
+
+    /**
+     * Returns the name of the key pressed while the last frame was shown, for
+     * sources that know it, so a trainer can learn from them with no
+     * keyboard.
+     *
+     * @return name of the key, or null if it comes from the keyboard
+     */
+    default String getKeyPressed() {
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.Arrays;
+
+/**
+ * Weight and bias changes added up over several samples before they are
+ * applied to a network. Shaped the same as the network it was made for.
+ *
+ * @author Nick Vocaire
+ */
+final class Gradient {
+
+    /**
+     * Changes to the input neuron weights.
+     */
+    private final Matrix inputWeights;
+
+    /**
+     * Changes to the weights of each hidden layer.
+     */
+    private final Matrix[] weights;
+
+    /**
+     * Changes to the biases of each hidden layer.
+     */
+    private final double[][] biases;
+
+    /**
+     * Changes to the biases of the output neurons.
+     */
+    private final double[] outputBiases;
+
+    /**
+     * Constructor for making a zeroed gradient shaped like a network.
+     *
+     * @param net the network the gradient is for
+     */
+    protected Gradient(final Network net) {
+        Matrix in = net.getInputWeights();
+        inputWeights = new Matrix(in.getRows(), in.getColumns());
+        weights = new Matrix[net.getLayerSize()];
+        biases = new double[net.getLayerSize()][];
+
+        for (int l = 0; l < weights.length; l++) {
+            Layer layer = net.getLayer(l);
+            weights[l] = new Matrix(layer.getSize(),
+                    layer.getNeuronWeightSize());
+            biases[l] = new double[layer.getSize()];
+        }
+        outputBiases = new double[net.getOutputSize()];
+    }
+
+    /**
+     * Sets every change back to zero.
+     */
+    protected void clear() {
+        inputWeights.clear();
+
+        for (int l = 0; l < weights.length; l++) {
+            weights[l].clear();
+            Arrays.fill(biases[l], 0);
+        }
+        Arrays.fill(outputBiases, 0);
+    }
+
+    /**
+     * Adds the changes of another gradient to this one.
+     *
+     * @param g gradient to add
+     */
+    protected void add(final Gradient g) {
+        inputWeights.add(1, g.inputWeights);
+
+        for (int l = 0; l < weights.length; l++) {
+            weights[l].add(1, g.weights[l]);
+            addArray(biases[l], 1, g.biases[l]);
+        }
+        addArray(outputBiases, 1, g.outputBiases);
+    }
+
+    /**
+     * Applies the scaled changes to a network.
+     *
+     * @param net network to change
+     * @param rate amount to scale the changes by
+     */
+    protected void apply(final Network net, final double rate) {
+        net.getInputWeights().add(rate, inputWeights);
+
+        for (int l = 0; l < weights.length; l++) {
+            net.getLayer(l).getWeights().add(rate, weights[l]);
+            addArray(net.getLayer(l).getBiases(), rate, biases[l]);
+        }
+
+        for (int o = 0; o < outputBiases.length; o++) {
+            ONeuron output = net.getOutputNeuron(o);
+            output.setBias(output.getBias() + rate * outputBiases[o]);
+        }
+    }
+
+    /**
+     * Returns the changes to the input neuron weights.
+     *
+     * @return input weight changes
+     */
+    protected Matrix getInputWeights() {
+        return inputWeights;
+    }
+
+    /**
+     * Returns the changes to the weights of a hidden layer.
+     *
+     * @param l the layer
+     * @return weight changes
+     */
+    protected Matrix getWeights(final int l) {
+        return weights[l];
+    }
+
+    /**
+     * Returns the changes to the biases of a hidden layer.
+     *
+     * @param l the layer
+     * @return bias changes
+     */
+    protected double[] getBiases(final int l) {
+        return biases[l];
+    }
+
+    /**
+     * Returns the changes to the biases of the output neurons.
+     *
+     * @return output bias changes
+     */
+    protected double[] getOutputBiases() {
+        return outputBiases;
+    }
+
+    /**
+     * Adds a scaled array to another, a += s * b.
+     *
+     * @param a array to add to
+     * @param s scale of the other array
+     * @param b array to add
+     */
+    private static void addArray(final double[] a, final double s,
+            final double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += s * b[i];
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trains a network on several threads at once with no locks between them.
+ *
+ * Samples are handed in from any thread and each worker propagates its own
+ * sample forward and back, writing the weight changes straight into the
+ * shared network while the other workers read and write it too. Changes can
+ * be lost or seen half done, which costs a little accuracy but lets the
+ * number of samples trained grow with the number of threads. Training is
+ * not repeatable, use ParallelBatch for that.
+ *
+ * In striped mode each block of rows of a weight matrix has a lock that is
+ * held while the block is changed, so no change is lost but workers only
+ * wait on each other when they hit the same block.
+ *
+ * @author Nick Vocaire
+ */
+final class HogwildTrainer {
+
+    /**
+     * Rows of a weight matrix that share one lock in striped mode.
+     */
+    private static final int STRIPE = 64;
+
+    /**
+     * Most samples waiting to be trained on before new ones are dropped.
+     */
+    private static final int QUEUE_SIZE = 64;
+
+    /**
+     * Network being trained.
+     */
+    private final Network net;
+
+    /**
+     * Worker threads.
+     */
+    private final Worker[] workers;
+
+    /**
+     * True if blocks of rows are locked while being changed.
+     */
+    private final boolean striped;
+
+    /**
+     * inputLocks - locks for the blocks of input weight rows.
+     * layerLocks - locks for the blocks of rows of each layer.
+     * outputLock - lock for the output biases.
+     */
+    private final Object[] inputLocks;
+    private final Object[][] layerLocks;
+    private final Object outputLock = new Object();
+
+    /**
+     * free - empty samples ready to be filled.
+     * ready - filled samples waiting for a worker.
+     */
+    private final BlockingQueue<Sample> free, ready;
+
+    /**
+     * trained - samples trained on.
+     * dropped - samples dropped because the workers were behind.
+     */
+    private final LongAdder trained = new LongAdder(),
+            dropped = new LongAdder();
+
+    /**
+     * Learning rate.
+     */
+    private volatile double learningRate;
+
+    /**
+     * True while the workers should keep going.
+     */
+    private volatile boolean running;
+
+    /**
+     * Constructor for making a trainer for a network.
+     *
+     * @param n the network to train
+     * @param threads number of worker threads
+     * @param s true to lock blocks of rows while changing them, false for
+     * plain racing writes
+     * @param l learning rate
+     */
+    protected HogwildTrainer(final Network n, final int threads,
+            final boolean s, final double l) {
+        net = n;
+        striped = s;
+        learningRate = l;
+        inputLocks = makeLocks(n.getInputSize());
+        layerLocks = new Object[n.getLayerSize()][];
+
+        for (int i = 0; i < layerLocks.length; i++) {
+            layerLocks[i] = makeLocks(n.getLayer(i).getSize());
+        }
+
+        free = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        ready = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            free.add(new Sample(n.getInputSize()));
+        }
+
+        workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    protected void start() {
+        running = true;
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the worker threads once they finish their current sample and
+     * waits for them.
+     */
+    protected void stop() {
+        running = false;
+        for (Worker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Method for setting the learning rate.
+     *
+     * @param l learning rate
+     */
+    protected void setLearningRate(final double l) {
+        learningRate = l;
+    }
+
+    /**
+     * Hands a sample to the workers. Never waits, if the workers are behind
+     * the sample is dropped.
+     *
+     * @param in input values of the sample
+     * @param key output neuron of the key pressed, -1 if none
+     * @param reward reward of the sample
+     * @return false if the sample was dropped
+     */
+    protected boolean submit(final double[] in, final int key,
+            final double reward) {
+        Sample sample = free.poll();
+
+        if (sample == null) {
+            dropped.increment();
+            return false;
+        }
+        System.arraycopy(in, 0, sample.inputs, 0, in.length);
+        sample.key = key;
+        sample.reward = reward;
+        ready.add(sample);
+        return true;
+    }
+
+    /**
+     * Returns the number of samples trained on so far.
+     *
+     * @return samples trained
+     */
+    protected long getTrained() {
+        return trained.sum();
+    }
+
+    /**
+     * Returns the number of samples dropped so far.
+     *
+     * @return samples dropped
+     */
+    protected long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Makes one lock for each block of rows.
+     *
+     * @param rows number of rows
+     * @return the locks
+     */
+    private static Object[] makeLocks(final int rows) {
+        Object[] locks = new Object[(rows + STRIPE - 1) / STRIPE];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * Sample waiting to be trained on.
+     */
+    private static final class Sample {
+
+        /**
+         * Input values.
+         */
+        private final double[] inputs;
+
+        /**
+         * Output neuron of the key pressed, -1 if none.
+         */
+        private int key;
+
+        /**
+         * Reward of the sample.
+         */
+        private double reward;
+
+        /**
+         * Constructor for making an empty sample.
+         *
+         * @param size number of input values
+         */
+        Sample(final int size) {
+            inputs = new double[size];
+        }
+    }
+
+    /**
+     * Thread that trains on samples with its own values and errors.
+     */
+    private final class Worker extends Parallel.Worker {
+
+        /**
+         * Batch of one sample that runs the forward pass, the same one
+         * MiniBatch training uses.
+         */
+        private final MiniBatch forward;
+
+        /**
+         * values - values of every layer, filled by the forward pass.
+         * errors - errors of every layer.
+         */
+        private final double[][] values, errors;
+
+        /**
+         * Errors of the output neurons, filled by the forward pass.
+         */
+        private final double[] outputErrors;
+
+        /**
+         * Constructor for making a worker.
+         */
+        Worker() {
+            forward = new MiniBatch(net, 1);
+            values = new double[net.getLayerSize()][];
+            errors = new double[net.getLayerSize()][];
+
+            for (int l = 0; l < values.length; l++) {
+                values[l] = forward.getValues(l);
+                errors[l] = new double[net.getLayer(l).getSize()];
+            }
+            outputErrors = forward.getOutputErrors();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Sample sample;
+                try {
+                    sample = ready.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                if (sample != null) {
+                    train(sample);
+                    free.add(sample);
+                    trained.increment();
+                }
+            }
+        }
+
+        /**
+         * Propagates a sample forward then back, changing the shared
+         * weights as it goes.
+         *
+         * @param sample the sample
+         */
+        private void train(final Sample sample) {
+            double rate = learningRate;
+
+            //Forward, reading the weights as other workers change them
+            forward.add(sample.inputs, sample.key, sample.reward);
+            forward.forwardErrors();
+            forward.clear();
+            int last = values.length - 1;
+
+            if (striped) {
+                synchronized (outputLock) {
+                    changeOutputBiases(rate);
+                }
+            } else {
+                changeOutputBiases(rate);
+            }
+
+            //Backward through the layers
+            for (int l = last; l >= 0; l--) {
+                Layer layer = net.getLayer(l);
+                double[] nextErrors = l == last ? outputErrors : errors[l + 1];
+
+                for (int block = 0; block < layerLocks[l].length; block++) {
+                    int from = block * STRIPE;
+                    int to = Math.min(from + STRIPE, layer.getSize());
+
+                    if (striped) {
+                        synchronized (layerLocks[l][block]) {
+                            changeLayer(layer, l, nextErrors, rate, from, to);
+                        }
+                    } else {
+                        changeLayer(layer, l, nextErrors, rate, from, to);
+                    }
+                }
+            }
+
+            //Input weights
+            Matrix inputWeights = net.getInputWeights();
+            double inputRate = rate * Network.INPUT_SCALE;
+
+            for (int block = 0; block < inputLocks.length; block++) {
+                int from = block * STRIPE;
+                int to = Math.min(from + STRIPE, inputWeights.getRows());
+
+                if (striped) {
+                    synchronized (inputLocks[block]) {
+                        changeInputs(sample.inputs, inputRate, from, to);
+                    }
+                } else {
+                    changeInputs(sample.inputs, inputRate, from, to);
+                }
+            }
+        }
+
+        /**
+         * Adds the output errors to the output biases.
+         *
+         * @param rate learning rate
+         */
+        private void changeOutputBiases(final double rate) {
+            for (int o = 0; o < outputErrors.length; o++) {
+                ONeuron output = net.getOutputNeuron(o);
+                output.setBias(output.getBias() + rate * outputErrors[o]);
+            }
+        }
+
+        /**
+         * Finds the errors of a block of neurons in a layer and changes
+         * their biases and weights.
+         *
+         * @param layer the layer
+         * @param l index of the layer
+         * @param nextErrors errors of the layer (or output) it connects to
+         * @param rate learning rate
+         * @param from first neuron
+         * @param to neuron after the last
+         */
+        private void changeLayer(final Layer layer, final int l,
+                final double[] nextErrors, final double rate, final int from,
+                final int to) {
+            Matrix weights = layer.getWeights();
+            double[] biases = layer.getBiases();
+            Activation activation = layer.getActivation();
+
+            for (int n = from; n < to; n++) {
+                errors[l][n] = weights.dotRow(n, nextErrors)
+                        * activation.derivative(values[l][n]);
+                biases[n] += rate * errors[l][n];
+                weights.addToRow(n, rate * values[l][n], nextErrors);
+            }
+        }
+
+        /**
+         * Changes the weights of a block of input neurons.
+         *
+         * @param inputs input values
+         * @param rate learning rate times the input scale
+         * @param from first input neuron
+         * @param to input neuron after the last
+         */
+        private void changeInputs(final double[] inputs, final double rate,
+                final int from, final int to) {
+            Matrix inputWeights = net.getInputWeights();
+
+            for (int i = from; i < to; i++) {
+                inputWeights.addToRow(i, rate * inputs[i], errors[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.Arrays;
+
+/**
+ * Summed-area table of the gray values of a frame, so the sum of any
+ * rectangle of pixels takes four reads however large it is.
+ *
+ * Each entry is the sum of the gray values above and left of it, where a
+ * gray value is (red + green + blue) / 3 rounded down. The sums along each
+ * row are found by Kernels.grayPrefix, so they use SIMD when it is there.
+ * The entries are ints, which a large frame of white can overflow, but a
+ * rectangle's sum is found by adding and subtracting entries so it comes
+ * out exact as long as the rectangle's own sum fits in an int.
+ *
+ * Frames of PARALLEL_PIXELS or more are built in two passes split across
+ * the shared pool, sums along each row then down each column, since each
+ * row of the one pass needs the row above it finished.
+ *
+ * @author Nick Vocaire
+ */
+final class IntegralImage {
+
+    /**
+     * Pixels in a frame below which it is built on the calling thread in
+     * one pass, about a 1024x512 region.
+     */
+    protected static final int PARALLEL_PIXELS = 1 << 19;
+
+    /**
+     * Sums with a row and column of zeros before the first pixel, so entry
+     * (x, y) is the sum of the pixels left of x and above y.
+     */
+    private int[] sums = new int[0];
+
+    /**
+     * width - width of the frame plus 1. height - height of the frame.
+     */
+    private int width, height;
+
+    /**
+     * Fills the table from the pixels of a frame, reusing its array when the
+     * frame is not larger than the last.
+     *
+     * @param rgb pixels of the frame as RGB ints, one row after another
+     * @param offset index of the top left pixel
+     * @param stride distance from a pixel to the one below it
+     * @param w width of the frame
+     * @param h height of the frame
+     */
+    protected void build(final int[] rgb, final int offset, final int stride,
+            final int w, final int h) {
+        width = w + 1;
+        height = h;
+        if (sums.length < width * (h + 1)) {
+            sums = new int[width * (h + 1)];
+        } else {
+            Arrays.fill(sums, 0, width, 0);
+        }
+
+        if ((long) w * h >= PARALLEL_PIXELS
+                && Parallel.getPool().getParallelism() > 1) {
+            buildSplit(rgb, offset, stride, w, h);
+            return;
+        }
+
+        for (int y = 0; y < h; y++) {
+            int row = (y + 1) * width;
+
+            sums[row] = 0;
+            Kernels.KERNELS.grayPrefix(rgb, offset + y * stride, sums,
+                    row + 1, w);
+            for (int x = 1; x < width; x++) {
+                sums[row + x] += sums[row - width + x];
+            }
+        }
+    }
+
+    /**
+     * Fills the table in two passes that are each split across the pool.
+     *
+     * @param rgb pixels of the frame as RGB ints, one row after another
+     * @param offset index of the top left pixel
+     * @param stride distance from a pixel to the one below it
+     * @param w width of the frame
+     * @param h height of the frame
+     */
+    private void buildSplit(final int[] rgb, final int offset,
+            final int stride, final int w, final int h) {
+        //Sums along each row on their own
+        Parallel.forRange(0, h, w, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = (y + 1) * width;
+
+                sums[row] = 0;
+                Kernels.KERNELS.grayPrefix(rgb, offset + y * stride, sums,
+                        row + 1, w);
+            }
+        });
+
+        //Then add each row to the one below it, a band of columns at a time
+        Parallel.forRange(1, width, h, (from, to) -> {
+            for (int row = 2 * width; row <= h * width; row += width) {
+                for (int x = from; x < to; x++) {
+                    sums[row + x] += sums[row - width + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the sum of the gray values of a rectangle of the frame.
+     *
+     * @param x left edge of the rectangle
+     * @param y top edge of the rectangle
+     * @param w width of the rectangle
+     * @param h height of the rectangle
+     * @return the sum of the gray values
+     */
+    protected int sum(final int x, final int y, final int w, final int h) {
+        if (x < 0 || y < 0 || x + w >= width || y + h > height) {
+            throw new IndexOutOfBoundsException("Rectangle " + x + ", " + y
+                    + ", " + w + ", " + h + " is outside the frame");
+        }
+
+        int top = y * width + x;
+        int bottom = top + h * width;
+        return sums[bottom + w] - sums[bottom] - sums[top + w] + sums[top];
+    }
+}
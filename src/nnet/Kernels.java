@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * Innermost loops of the network math, as plain Java loops.
+ *
+ * When the JVM has the jdk.incubator.vector module (Java 16 or later, run
+ * with --add-modules jdk.incubator.vector) and VectorKernels was built (see
+ * the -post-compile target in build.xml), the SIMD versions in VectorKernels
+ * are used instead. Setting the nnet.simd system property to false always
+ * uses these.
+ *
+ * axpy, axpy4 and grayPrefix give the same results bit for bit either way. dot
+ * adds the products in a different order with SIMD, so its result can differ
+ * in the last bits, by at most about length * 1e-16 times the sum of the
+ * magnitudes of the products.
+ *
+ * @author Nick Vocaire
+ */
+class Kernels {
+
+    /**
+     * Kernels used by every network.
+     */
+    protected static final Kernels KERNELS = load();
+
+    /**
+     * Constructor for making the plain kernels.
+     */
+    protected Kernels() {
+    }
+
+    /**
+     * Picks the SIMD kernels if they were built and the JVM can run them,
+     * otherwise the plain ones.
+     *
+     * @return the kernels
+     */
+    private static Kernels load() {
+        if (Boolean.parseBoolean(System.getProperty("nnet.simd", "true"))) {
+            try {
+                return (Kernels) Class.forName("nnet.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                //Not built, or the vector module is not there
+            }
+        }
+        return new Kernels();
+    }
+
+    /**
+     * Returns the name of the kernels being used.
+     *
+     * @return name of the kernels
+     */
+    protected String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Returns the dot product of two vectors.
+     *
+     * @param a array holding the first vector
+     * @param aOffset where the first vector starts
+     * @param b array holding the second vector
+     * @param bOffset where the second vector starts
+     * @param length length of the vectors
+     * @return the dot product
+     */
+    protected double dot(final double[] a, final int aOffset,
+            final double[] b, final int bOffset, final int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a scaled vector to another, y += a * x.
+     *
+     * @param a scale of x
+     * @param x array holding the vector to add
+     * @param xOffset where x starts
+     * @param y array holding the vector to add to
+     * @param yOffset where y starts
+     * @param length length of the vectors
+     */
+    protected void axpy(final double a, final double[] x, final int xOffset,
+            final double[] y, final int yOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += a * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Adds four scaled vectors from one array to another vector, y += a0 *
+     * x0 + a1 * x1 + a2 * x2 + a3 * x3, so y is loaded and stored once for
+     * all four.
+     *
+     * @param a0 scale of the first vector
+     * @param a1 scale of the second vector
+     * @param a2 scale of the third vector
+     * @param a3 scale of the fourth vector
+     * @param x array holding the vectors to add
+     * @param x0 where the first vector starts
+     * @param x1 where the second vector starts
+     * @param x2 where the third vector starts
+     * @param x3 where the fourth vector starts
+     * @param y array holding the vector to add to
+     * @param yOffset where y starts
+     * @param length length of the vectors
+     */
+    protected void axpy4(final double a0, final double a1, final double a2,
+            final double a3, final double[] x, final int x0, final int x1,
+            final int x2, final int x3, final double[] y, final int yOffset,
+            final int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += a0 * x[x0 + i] + a1 * x[x1 + i]
+                    + a2 * x[x2 + i] + a3 * x[x3 + i];
+        }
+    }
+
+    /**
+     * Puts the running sums of the gray values of packed RGB pixels in an
+     * array, where each gray value is (red + green + blue) / 3 rounded down.
+     * Each entry is the sum of the gray values up to and including its
+     * pixel.
+     *
+     * @param rgb array holding the pixels
+     * @param offset where the pixels start
+     * @param sums array the running sums are put in
+     * @param sumsOffset where the running sums start
+     * @param length number of pixels
+     */
+    protected void grayPrefix(final int[] rgb, final int offset,
+            final int[] sums, final int sumsOffset, final int length) {
+        int running = 0;
+        for (int i = 0; i < length; i++) {
+            int p = rgb[offset + i];
+            running += (((p >> 16) & 0xFF) + ((p >> 8) & 0xFF) + (p & 0xFF))
+                    / 3;
+            sums[sumsOffset + i] = running;
+        }
+    }
+}
@@ -29,18 +29,99 @@ final class Layer {
     private final int size;
 
     /**
-     * Array of layer's neurons.
+     * Weights from every neuron in the layer to the next layer (or output),
+     * one row per neuron.
      */
-    private final Neuron[] neurons;
+    private Matrix weights;
 
     /**
-     * Constructor for making layers in a network based on specified neurons.
+     * biases - bias of each neuron.
+     * values - value of each neuron.
+     * errors - how far off each value is based on cost function.
+     */
+    private final double[] biases, values, errors;
+
+    /**
+     * Function the neurons squish their weighted sums with.
+     */
+    private Activation activation = Activation.SIGMOID;
+
+    /**
+     * Constructor for making a layer of zeroed neurons.
+     *
+     * @param s the number of neurons in the layer
+     * @param next the number of neurons in the next layer (or output)
+     */
+    protected Layer(final int s, final int next) {
+        this(s, next, false);
+    }
+
+    /**
+     * Constructor for making a layer of zeroed neurons.
+     *
+     * @param s the number of neurons in the layer
+     * @param next the number of neurons in the next layer (or output)
+     * @param single true to store the weights as floats
+     */
+    protected Layer(final int s, final int next, final boolean single) {
+        size = s;
+        weights = new Matrix(s, next, single);
+        biases = new double[s];
+        values = new double[s];
+        errors = new double[s];
+    }
+
+    /**
+     * Sets every weight and bias in the layer to a random value between -1
+     * and 1.
+     */
+    protected void fillRandom() {
+        weights.fillRandom();
+
+        for (int n = 0; n < size; n++) {
+            biases[n] = Math.random() * 2 - 1;
+        }
+    }
+
+    /**
+     * Copies the weights, biases and activation into a layer of the same
+     * size and precision.
+     *
+     * @param l the layer to copy into
+     */
+    protected void copyTo(final Layer l) {
+        weights.copyTo(l.weights);
+        System.arraycopy(biases, 0, l.biases, 0, size);
+        l.activation = activation;
+    }
+
+    /**
+     * Changes the precision the weights are stored at.
      *
-     * @param n the neuron array of the layer
+     * @param single true for floats, false for doubles
      */
-    protected Layer(final Neuron[] n) {
-        neurons = n;
-        size = n.length;
+    protected void setPrecision(final boolean single) {
+        weights = weights.toPrecision(single);
+    }
+
+    /**
+     * Method for setting the function the neurons squish their weighted
+     * sums with.
+     *
+     * @param a the activation
+     */
+    protected void setActivation(final Activation a) {
+        activation = a;
+    }
+
+    /**
+     * Method to return the function the neurons squish their weighted sums
+     * with.
+     *
+     * @return the activation
+     */
+    protected Activation getActivation() {
+        return activation;
     }
 
     /**
@@ -50,7 +131,7 @@ final class Layer {
      * @param v the value to set is as
      */
     protected void setNeuronValue(final int n, final double v) {
-        neurons[n].setValue(v);
+        values[n] = v;
     }
 
     /**
@@ -60,7 +141,7 @@ final class Layer {
      * @param e the value to set it as
      */
     public void setNeuronError(final int n, final double e) {
-        neurons[n].setError(e);
+        errors[n] = e;
     }
 
     /**
@@ -71,7 +152,7 @@ final class Layer {
      * @param aj value to set it as
      */
     protected void setNeuronWeight(final int n, final int w, final double aj) {
-        neurons[n].setWeight(w, aj);
+        weights.set(n, w, aj);
     }
 
     /**
@@ -81,7 +162,7 @@ final class Layer {
      * @param b bias to set
      */
     protected void setNeuronBias(final int n, final double b) {
-        neurons[n].setBias(b);
+        biases[n] = b;
     }
 
     /**
@@ -91,7 +172,7 @@ final class Layer {
      * @return value of neuron
      */
     protected double getNeuronValue(final int n) {
-        return neurons[n].getValue();
+        return values[n];
     }
 
     /**
@@ -102,7 +183,7 @@ final class Layer {
      * @return weight
      */
     protected double getNeuronWeight(final int n, final int w) {
-        return neurons[n].getWeight(w);
+        return weights.get(n, w);
     }
 
     /**
@@ -112,7 +193,7 @@ final class Layer {
      * @return bias to get
      */
     protected double getNeuronBias(final int n) {
-        return neurons[n].getBias();
+        return biases[n];
     }
 
     /**
@@ -122,7 +203,7 @@ final class Layer {
      * @return error to get
      */
     protected double getNeuronError(final int n) {
-        return neurons[n].getError();
+        return errors[n];
     }
 
     /**
@@ -137,19 +218,45 @@ final class Layer {
     /**
      * Method to return the size of the weights array for a neuron.
      *
-     * @param n neuron to check
-     * @return size of weights array of neuron
+     * @return size of weights array of each neuron
+     */
+    protected int getNeuronWeightSize() {
+        return weights.getColumns();
+    }
+
+    /**
+     * Method to return the weights of the layer.
+     *
+     * @return weight matrix, one row per neuron
+     */
+    protected Matrix getWeights() {
+        return weights;
+    }
+
+    /**
+     * Method to return the biases of the layer.
+     *
+     * @return array of biases
+     */
+    protected double[] getBiases() {
+        return biases;
+    }
+
+    /**
+     * Method to return the values of the layer.
+     *
+     * @return array of values
      */
-    protected int getNeuronWeightSize(final int n) {
-        return neurons[n].getWeightSize();
+    protected double[] getValues() {
+        return values;
     }
 
     /**
-     * Method to return array of neurons in layer.
+     * Method to return the errors of the layer.
      *
-     * @return array of neurons
+     * @return array of errors
      */
-    protected Neuron[] getNeurons() {
-        return neurons;
+    protected double[] getErrors() {
+        return errors;
     }
 }
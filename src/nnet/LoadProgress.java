@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Counts how much of a network file has been read by the threads loading
+ * it and tells a listener, such as the GUI's progress bar, the fraction
+ * done.
+ *
+ * @author Nick Vocaire
+ */
+final class LoadProgress {
+
+    /**
+     * Told the fraction done, from whichever thread did the work. May be
+     * null.
+     */
+    private final DoubleConsumer listener;
+
+    /**
+     * Amount of work in the whole load.
+     */
+    private final long total;
+
+    /**
+     * Amount of work done.
+     */
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * Constructor for counting a load.
+     *
+     * @param l told the fraction done, may be null
+     * @param t amount of work in the whole load
+     */
+    protected LoadProgress(final DoubleConsumer l, final long t) {
+        listener = l;
+        total = Math.max(1, t);
+    }
+
+    /**
+     * Counts work that has been done and tells the listener.
+     *
+     * @param amount work done
+     */
+    protected void add(final long amount) {
+        long now = done.addAndGet(amount);
+        if (listener != null) {
+            listener.accept(Math.min(1, (double) now / total));
+        }
+    }
+}
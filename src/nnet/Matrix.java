@@ -0,0 +1,703 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.Arrays;
+
+/**
+ * Dense block of connection weights stored in one flat row-major array.
+ *
+ * Row r holds the weights from neuron r of a layer to every neuron of the
+ * next layer, which is the same order the rows are saved in, so a whole pass
+ * over the matrix reads memory linearly.
+ *
+ * The weights are stored as doubles, or as floats for single precision
+ * networks, which halves the memory read by every pass. The vectors passed
+ * in and out are still doubles, and so is every sum longer than one block of
+ * rows, so only the stored weights lose much precision.
+ *
+ * @author Nick Vocaire
+ */
+final class Matrix {
+
+    /**
+     * Number of columns multiplied at a time, small enough that the outputs
+     * being added to stay in the first level cache.
+     */
+    private static final int TILE = 1024;
+
+    /**
+     * Number of rows multiplied at a time by a batch, small enough that a
+     * block of rows by a tile of columns stays in the second level cache.
+     */
+    private static final int BLOCK = 32;
+
+    /**
+     * Fewest columns given to one thread, so threads never share the cache
+     * lines they are adding to.
+     */
+    private static final int GROUP = 16;
+
+    /**
+     * rows - Number of neurons the weights come from.
+     * columns - Number of neurons the weights go to.
+     */
+    private final int rows, columns;
+
+    /**
+     * Weights, row after row, null for single precision.
+     */
+    private final double[] data;
+
+    /**
+     * Weights, row after row, null for double precision.
+     */
+    private final float[] floats;
+
+    /**
+     * Constructor for making a zeroed double precision matrix.
+     *
+     * @param r number of rows
+     * @param c number of columns
+     */
+    protected Matrix(final int r, final int c) {
+        this(r, c, false);
+    }
+
+    /**
+     * Constructor for making a zeroed matrix.
+     *
+     * @param r number of rows
+     * @param c number of columns
+     * @param single true to store the weights as floats
+     */
+    protected Matrix(final int r, final int c, final boolean single) {
+        rows = r;
+        columns = c;
+        data = single ? null : new double[r * c];
+        floats = single ? new float[r * c] : null;
+    }
+
+    /**
+     * Returns a copy of the matrix with the weights stored at another
+     * precision, or this matrix if it already is.
+     *
+     * @param single true for floats, false for doubles
+     * @return the matrix at that precision
+     */
+    protected Matrix toPrecision(final boolean single) {
+        if (single == isSingle()) {
+            return this;
+        }
+        Matrix m = new Matrix(rows, columns, single);
+
+        for (int i = 0; i < rows * columns; i++) {
+            m.set(i, get(i));
+        }
+        return m;
+    }
+
+    /**
+     * Copies every weight into a matrix of the same size and precision.
+     *
+     * @param m the matrix to copy into
+     */
+    protected void copyTo(final Matrix m) {
+        if (floats != null) {
+            System.arraycopy(floats, 0, m.floats, 0, floats.length);
+        } else {
+            System.arraycopy(data, 0, m.data, 0, data.length);
+        }
+    }
+
+    /**
+     * Copies the blocks of weights that differ into a matrix of the same
+     * size and precision, and marks which they were. Weights are compared
+     * by their bits, so a block only counts as the same if saving it would
+     * write the same bytes.
+     *
+     * @param m the matrix to copy into
+     * @param blockSize weights in each block, the last block may be smaller
+     * @param changed array to mark the blocks that differed in, one entry per
+     * block
+     * @return the number of blocks that differed
+     */
+    protected int copyChanged(final Matrix m, final int blockSize,
+            final boolean[] changed) {
+        int count = 0;
+        int length = rows * columns;
+
+        for (int b = 0; b < changed.length; b++) {
+            int from = b * blockSize;
+            int to = Math.min(length, from + blockSize);
+            int i = from;
+
+            if (floats != null) {
+                while (i < to && Float.floatToRawIntBits(floats[i])
+                        == Float.floatToRawIntBits(m.floats[i])) {
+                    i++;
+                }
+            } else {
+                while (i < to && Double.doubleToRawLongBits(data[i])
+                        == Double.doubleToRawLongBits(m.data[i])) {
+                    i++;
+                }
+            }
+
+            //Only copies from the first weight that differs
+            changed[b] = i < to;
+            if (changed[b]) {
+                count++;
+                if (floats != null) {
+                    System.arraycopy(floats, i, m.floats, i, to - i);
+                } else {
+                    System.arraycopy(data, i, m.data, i, to - i);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether the weights are stored as floats.
+     *
+     * @return true for single precision
+     */
+    protected boolean isSingle() {
+        return floats != null;
+    }
+
+    /**
+     * Sets every weight to a random value between -1 and 1.
+     */
+    protected void fillRandom() {
+        for (int i = 0; i < rows * columns; i++) {
+            set(i, Math.random() * 2 - 1);
+        }
+    }
+
+    /**
+     * Sets a single weight.
+     *
+     * @param r row of the weight
+     * @param c column of the weight
+     * @param v value to set
+     */
+    protected void set(final int r, final int c, final double v) {
+        set(r * columns + c, v);
+    }
+
+    /**
+     * Returns a single weight.
+     *
+     * @param r row of the weight
+     * @param c column of the weight
+     * @return the weight
+     */
+    protected double get(final int r, final int c) {
+        return get(r * columns + c);
+    }
+
+    /**
+     * Sets a weight by its place in the backing array.
+     *
+     * @param i place of the weight
+     * @param v value to set
+     */
+    private void set(final int i, final double v) {
+        if (floats != null) {
+            floats[i] = (float) v;
+        } else {
+            data[i] = v;
+        }
+    }
+
+    /**
+     * Returns a weight by its place in the backing array.
+     *
+     * @param i place of the weight
+     * @return the weight
+     */
+    private double get(final int i) {
+        return floats != null ? floats[i] : data[i];
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return rows
+     */
+    protected int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return columns
+     */
+    protected int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the backing array of a double precision matrix.
+     *
+     * @return row-major weights, null for single precision
+     */
+    protected double[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the backing array of a single precision matrix.
+     *
+     * @return row-major weights, null for double precision
+     */
+    protected float[] getFloats() {
+        return floats;
+    }
+
+    /**
+     * Multiplies a vector by the matrix, out = x * W, where x has one entry
+     * per row and out one entry per column.
+     *
+     * @param x incoming values
+     * @param out array to store the result in
+     */
+    protected void multiply(final double[] x, final double[] out) {
+        multiply(x, 1, out);
+    }
+
+    /**
+     * Multiplies a scaled vector by the matrix, out = (scale * x) * W. The
+     * scale is applied once to each output instead of to every product.
+     *
+     * The columns are done in tiles that stay in cache, and each pass over a
+     * tile adds four rows at once so every output is loaded and stored a
+     * quarter as often.
+     *
+     * @param x incoming values
+     * @param scale amount to scale the incoming values by
+     * @param out array to store the result in
+     */
+    protected void multiply(final double[] x, final double scale,
+            final double[] out) {
+        Parallel.forRange(0, groups(), (long) rows * GROUP,
+                (from, to) -> multiplyColumns(x, scale, out, from * GROUP,
+                        Math.min(to * GROUP, columns)));
+    }
+
+    /**
+     * Does the columns from first (inclusive) to last (exclusive) of a
+     * multiply.
+     *
+     * @param x incoming values
+     * @param scale amount to scale the incoming values by
+     * @param out array to store the result in
+     * @param first first column
+     * @param last column after the last
+     */
+    private void multiplyColumns(final double[] x, final double scale,
+            final double[] out, final int first, final int last) {
+        Arrays.fill(out, first, last, 0);
+        float[] sums = floats != null ? new float[TILE] : null;
+
+        for (int start = first; start < last; start += TILE) {
+            int end = Math.min(start + TILE, last);
+
+            if (floats != null) {
+                for (int block = 0; block < rows; block += BLOCK) {
+                    multiplyTileFloat(x, 0, out, 0, block,
+                            Math.min(block + BLOCK, rows), start, end, sums);
+                }
+            } else {
+                multiplyTile(x, 0, out, 0, 0, rows, start, end);
+            }
+        }
+
+        if (scale != 1) {
+            for (int c = first; c < last; c++) {
+                out[c] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Adds the rows first to last of the matrix, times one vector, to the
+     * columns start to end of one output vector, four rows at a time.
+     *
+     * @param x array holding the incoming vector
+     * @param xOffset where the vector starts in x
+     * @param out array holding the output vector
+     * @param outOffset where the vector starts in out
+     * @param first first row
+     * @param last row after the last
+     * @param start first column
+     * @param end column after the last
+     */
+    private void multiplyTile(final double[] x, final int xOffset,
+            final double[] out, final int outOffset, final int first,
+            final int last, final int start, final int end) {
+        int r = first;
+
+        //Four rows at a time
+        for (; r + 3 < last; r += 4) {
+            double x0 = x[xOffset + r], x1 = x[xOffset + r + 1],
+                    x2 = x[xOffset + r + 2], x3 = x[xOffset + r + 3];
+            int o0 = r * columns + start, o1 = o0 + columns,
+                    o2 = o1 + columns, o3 = o2 + columns;
+
+            Kernels.KERNELS.axpy4(x0, x1, x2, x3, data, o0, o1, o2, o3, out,
+                    outOffset + start, end - start);
+        }
+
+        //Rows left over
+        for (; r < last; r++) {
+            Kernels.KERNELS.axpy(x[xOffset + r], data, r * columns + start,
+                    out, outOffset + start, end - start);
+        }
+    }
+
+    /**
+     * Same as multiplyTile for a single precision matrix. The rows are added
+     * up as floats so the loops stay all float and run twice as wide, which
+     * is only close enough for a block of BLOCK rows, so each block's sums
+     * are then added to the double outputs.
+     *
+     * @param x array holding the incoming vector
+     * @param xOffset where the vector starts in x
+     * @param out array holding the output vector
+     * @param outOffset where the vector starts in out
+     * @param first first row
+     * @param last row after the last, no more than BLOCK past first
+     * @param start first column
+     * @param end column after the last
+     * @param sums scratch array of at least TILE floats
+     */
+    private void multiplyTileFloat(final double[] x, final int xOffset,
+            final double[] out, final int outOffset, final int first,
+            final int last, final int start, final int end,
+            final float[] sums) {
+        Arrays.fill(sums, 0, end - start, 0);
+        int r = first;
+
+        //Four rows at a time
+        for (; r + 3 < last; r += 4) {
+            float x0 = (float) x[xOffset + r],
+                    x1 = (float) x[xOffset + r + 1],
+                    x2 = (float) x[xOffset + r + 2],
+                    x3 = (float) x[xOffset + r + 3];
+            int o0 = r * columns + start, o1 = o0 + columns,
+                    o2 = o1 + columns, o3 = o2 + columns;
+
+            for (int c = 0; c < end - start; c++) {
+                sums[c] += x0 * floats[o0 + c] + x1 * floats[o1 + c]
+                        + x2 * floats[o2 + c] + x3 * floats[o3 + c];
+            }
+        }
+
+        //Rows left over
+        for (; r < last; r++) {
+            float x0 = (float) x[xOffset + r];
+            int o0 = r * columns + start;
+
+            for (int c = 0; c < end - start; c++) {
+                sums[c] += x0 * floats[o0 + c];
+            }
+        }
+
+        for (int c = 0; c < end - start; c++) {
+            out[outOffset + start + c] += sums[c];
+        }
+    }
+
+    /**
+     * Multiplies a batch of scaled vectors by the matrix, out = (scale * X) *
+     * W, where each row of X is one vector and each row of out its result.
+     *
+     * The matrix is done in blocks of rows small enough to stay in cache
+     * while every vector of the batch goes through them, so each weight is
+     * loaded from memory once per batch instead of once per vector.
+     *
+     * @param x incoming vectors, count rows of this matrix's rows entries
+     * @param count number of vectors in the batch
+     * @param scale amount to scale the incoming values by
+     * @param out array to store the results in, count rows of this matrix's
+     * columns entries
+     */
+    protected void multiplyBatch(final double[] x, final int count,
+            final double scale, final double[] out) {
+        Parallel.forRange(0, groups(), (long) rows * count * GROUP,
+                (from, to) -> multiplyBatchColumns(x, count, scale, out,
+                        from * GROUP, Math.min(to * GROUP, columns)));
+    }
+
+    /**
+     * Does the columns from first (inclusive) to last (exclusive) of a batch
+     * multiply.
+     *
+     * @param x incoming vectors
+     * @param count number of vectors in the batch
+     * @param scale amount to scale the incoming values by
+     * @param out array to store the results in
+     * @param first first column
+     * @param last column after the last
+     */
+    private void multiplyBatchColumns(final double[] x, final int count,
+            final double scale, final double[] out, final int first,
+            final int last) {
+        for (int b = 0; b < count; b++) {
+            Arrays.fill(out, b * columns + first, b * columns + last, 0);
+        }
+        float[] sums = floats != null ? new float[TILE] : null;
+
+        for (int start = first; start < last; start += TILE) {
+            int end = Math.min(start + TILE, last);
+
+            for (int block = 0; block < rows; block += BLOCK) {
+                int blockEnd = Math.min(block + BLOCK, rows);
+
+                for (int b = 0; b < count; b++) {
+                    if (floats != null) {
+                        multiplyTileFloat(x, b * rows, out, b * columns,
+                                block, blockEnd, start, end, sums);
+                    } else {
+                        multiplyTile(x, b * rows, out, b * columns, block,
+                                blockEnd, start, end);
+                    }
+                }
+            }
+        }
+
+        if (scale != 1) {
+            for (int b = 0; b < count; b++) {
+                for (int c = b * columns + first; c < b * columns + last;
+                        c++) {
+                    out[c] *= scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies a batch of vectors by the transpose of the matrix, out[b][r]
+     * = W[r] . v[b], the dot product of each row with each vector. Used to
+     * send errors back through the weights.
+     *
+     * @param v vectors, count rows of this matrix's columns entries
+     * @param count number of vectors in the batch
+     * @param out array to store the results in, count rows of this matrix's
+     * rows entries
+     */
+    protected void multiplyTransposedBatch(final double[] v, final int count,
+            final double[] out) {
+        Parallel.forRange(0, rows, (long) columns * count,
+                (from, to) -> multiplyTransposedRows(v, count, out, from, to));
+    }
+
+    /**
+     * Does the rows from first (inclusive) to last (exclusive) of a
+     * transposed batch multiply.
+     *
+     * @param v vectors
+     * @param count number of vectors in the batch
+     * @param out array to store the results in
+     * @param first first row
+     * @param last row after the last
+     */
+    private void multiplyTransposedRows(final double[] v, final int count,
+            final double[] out, final int first, final int last) {
+        for (int r = first; r < last; r++) {
+
+            //The row stays in cache for every vector of the batch
+            for (int b = 0; b < count; b++) {
+                out[b * rows + r] = dotRow(r, v, b * columns);
+            }
+        }
+    }
+
+    /**
+     * Adds the outer products of a batch of vector pairs to the matrix, W[r]
+     * += sum over b of (scale * x[b][r]) * v[b]. Used to add up the weight
+     * changes of a whole batch.
+     *
+     * @param x vectors with one entry per row, count of them
+     * @param scale amount to scale the x values by
+     * @param v vectors with one entry per column, count of them
+     * @param count number of vector pairs in the batch
+     */
+    protected void addOuterBatch(final double[] x, final double scale,
+            final double[] v, final int count) {
+        Parallel.forRange(0, rows, (long) columns * count,
+                (from, to) -> addOuterRows(x, scale, v, count, from, to));
+    }
+
+    /**
+     * Does the rows from first (inclusive) to last (exclusive) of a batch
+     * outer product.
+     *
+     * @param x vectors with one entry per row
+     * @param scale amount to scale the x values by
+     * @param v vectors with one entry per column
+     * @param count number of vector pairs in the batch
+     * @param first first row
+     * @param last row after the last
+     */
+    private void addOuterRows(final double[] x, final double scale,
+            final double[] v, final int count, final int first,
+            final int last) {
+        for (int r = first; r < last; r++) {
+            int offset = r * columns;
+
+            //The row stays in cache for every pair of the batch, four pairs
+            //are added at a time
+            int b = 0;
+            for (; b + 3 < count; b += 4) {
+                double a0 = scale * x[b * rows + r],
+                        a1 = scale * x[(b + 1) * rows + r],
+                        a2 = scale * x[(b + 2) * rows + r],
+                        a3 = scale * x[(b + 3) * rows + r];
+                int v0 = b * columns, v1 = v0 + columns, v2 = v1 + columns,
+                        v3 = v2 + columns;
+
+                if (floats != null) {
+                    for (int c = 0; c < columns; c++) {
+                        floats[offset + c] += a0 * v[v0 + c] + a1 * v[v1 + c]
+                                + a2 * v[v2 + c] + a3 * v[v3 + c];
+                    }
+                } else {
+                    Kernels.KERNELS.axpy4(a0, a1, a2, a3, v, v0, v1, v2, v3,
+                            data, offset, columns);
+                }
+            }
+
+            //Pairs left over
+            for (; b < count; b++) {
+                addToRow(r, scale * x[b * rows + r], v, b * columns);
+            }
+        }
+    }
+
+    /**
+     * Adds a scaled matrix of the same size to this one, W += a * m. The
+     * matrices may have different precisions, so a single precision network
+     * can take a double precision gradient.
+     *
+     * @param a scale of the other matrix
+     * @param m matrix to add
+     */
+    protected void add(final double a, final Matrix m) {
+        Parallel.forRange(0, rows, columns, (from, to) -> {
+            if (floats == null && m.floats == null) {
+                for (int i = from * columns; i < to * columns; i++) {
+                    data[i] += a * m.data[i];
+                }
+            } else {
+                for (int i = from * columns; i < to * columns; i++) {
+                    set(i, get(i) + a * m.get(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets every weight to zero.
+     */
+    protected void clear() {
+        if (floats != null) {
+            Arrays.fill(floats, 0);
+        } else {
+            Arrays.fill(data, 0);
+        }
+    }
+
+    /**
+     * Returns the dot product of a row with a vector.
+     *
+     * @param r row to use
+     * @param v vector with one entry per column
+     * @return the dot product
+     */
+    protected double dotRow(final int r, final double[] v) {
+        return dotRow(r, v, 0);
+    }
+
+    /**
+     * Returns the dot product of a row with a vector.
+     *
+     * @param r row to use
+     * @param v array holding the vector
+     * @param vOffset where the vector starts in v
+     * @return the dot product
+     */
+    private double dotRow(final int r, final double[] v, final int vOffset) {
+        double sum = 0;
+        int offset = r * columns;
+
+        if (floats != null) {
+            for (int c = 0; c < columns; c++) {
+                sum += floats[offset + c] * v[vOffset + c];
+            }
+        } else {
+            sum = Kernels.KERNELS.dot(data, offset, v, vOffset, columns);
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a scaled vector to a row, W[r] += a * v.
+     *
+     * @param r row to change
+     * @param a scale of the vector
+     * @param v vector with one entry per column
+     */
+    protected void addToRow(final int r, final double a, final double[] v) {
+        addToRow(r, a, v, 0);
+    }
+
+    /**
+     * Adds a scaled vector to a row, W[r] += a * v.
+     *
+     * @param r row to change
+     * @param a scale of the vector
+     * @param v array holding the vector
+     * @param vOffset where the vector starts in v
+     */
+    private void addToRow(final int r, final double a, final double[] v,
+            final int vOffset) {
+        int offset = r * columns;
+
+        if (floats != null) {
+            for (int c = 0; c < columns; c++) {
+                floats[offset + c] += a * v[vOffset + c];
+            }
+        } else {
+            Kernels.KERNELS.axpy(a, v, vOffset, data, offset, columns);
+        }
+    }
+
+    /**
+     * Returns how many groups of GROUP columns the matrix has, the last one
+     * may be smaller.
+     *
+     * @return number of column groups
+     */
+    private int groups() {
+        return (columns + GROUP - 1) / GROUP;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * Batch of samples that are propagated forward and back together, so the
+ * weights are changed once per batch instead of once per sample.
+ *
+ * Every layer keeps one row of values and errors per sample, which lets
+ * each step be a matrix times matrix product that goes over the weights
+ * once for the whole batch.
+ *
+ * @author Nick Vocaire
+ */
+final class MiniBatch {
+
+    /**
+     * Network the batch trains.
+     */
+    private final Network net;
+
+    /**
+     * capacity - most samples the batch holds.
+     * count - samples in the batch.
+     */
+    private final int capacity;
+    private int count;
+
+    /**
+     * Input values of every sample, one row per sample.
+     */
+    private final double[] inputs;
+
+    /**
+     * Output neuron of the key pressed for every sample, -1 if none.
+     */
+    private final int[] keys;
+
+    /**
+     * Reward of every sample.
+     */
+    private final double[] rewards;
+
+    /**
+     * values - values of every hidden layer, one row per sample.
+     * errors - errors of every hidden layer, one row per sample.
+     */
+    private final double[][] values, errors;
+
+    /**
+     * outputValues - values of the output neurons, one row per sample.
+     * outputErrors - errors of the output neurons, one row per sample.
+     */
+    private final double[] outputValues, outputErrors;
+
+    /**
+     * Weight and bias changes of the batch, made the first time they are
+     * needed.
+     */
+    private Gradient gradient;
+
+    /**
+     * Total loss of the samples when the gradient was last found.
+     */
+    private double loss;
+
+    /**
+     * Constructor for making an empty batch for a network.
+     *
+     * @param n the network to train
+     * @param c most samples the batch holds
+     */
+    protected MiniBatch(final Network n, final int c) {
+        net = n;
+        capacity = c;
+        inputs = new double[c * n.getInputSize()];
+        keys = new int[c];
+        rewards = new double[c];
+        values = new double[n.getLayerSize()][];
+        errors = new double[n.getLayerSize()][];
+
+        for (int l = 0; l < values.length; l++) {
+            values[l] = new double[c * n.getLayer(l).getSize()];
+            errors[l] = new double[c * n.getLayer(l).getSize()];
+        }
+        outputValues = new double[c * n.getOutputSize()];
+        outputErrors = new double[c * n.getOutputSize()];
+    }
+
+    /**
+     * Adds a sample to the batch.
+     *
+     * @param in input values of the sample
+     * @param key output neuron of the key pressed, -1 if none
+     * @param reward reward of the sample
+     * @return true if the batch is now full
+     */
+    protected boolean add(final double[] in, final int key,
+            final double reward) {
+        System.arraycopy(in, 0, inputs, count * in.length, in.length);
+        keys[count] = key;
+        rewards[count] = reward;
+        count++;
+        return isFull();
+    }
+
+    /**
+     * Returns whether the batch is full.
+     *
+     * @return true if full
+     */
+    protected boolean isFull() {
+        return count == capacity;
+    }
+
+    /**
+     * Returns how many samples are in the batch.
+     *
+     * @return number of samples
+     */
+    protected int getSize() {
+        return count;
+    }
+
+    /**
+     * Returns the most samples the batch holds.
+     *
+     * @return capacity
+     */
+    protected int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the weight and bias changes found by the last call to
+     * computeGradient.
+     *
+     * @return the gradient
+     */
+    protected Gradient getGradient() {
+        if (gradient == null) {
+            gradient = new Gradient(net);
+        }
+        return gradient;
+    }
+
+    /**
+     * Returns the total loss of the samples, before their changes, when the
+     * gradient was last found.
+     *
+     * @return the loss
+     */
+    protected double getLoss() {
+        return loss;
+    }
+
+    /**
+     * Empties the batch.
+     */
+    protected void clear() {
+        count = 0;
+    }
+
+    /**
+     * Trains the network on every sample in the batch with one change to
+     * the weights, then empties the batch. The changes are averaged over the
+     * batch.
+     *
+     * @param learningRate learning rate
+     */
+    protected void train(final double learningRate) {
+        if (count == 0) {
+            return;
+        }
+        computeGradient();
+        getGradient().apply(net, learningRate / count);
+        count = 0;
+    }
+
+    /**
+     * Propagates every sample forward then back through the network and adds
+     * up the weight and bias changes in the gradient. The network itself is
+     * not changed.
+     */
+    protected void computeGradient() {
+        computeGradient(getGradient());
+    }
+
+    /**
+     * Propagates every sample forward then back through the network and puts
+     * the weight and bias changes in a gradient that is not the batch's own,
+     * so batches can share a few gradients between them. The network itself
+     * is not changed.
+     *
+     * @param g gradient to clear and fill
+     */
+    protected void computeGradient(final Gradient g) {
+        g.clear();
+        loss = 0;
+        forward();
+        backward(g);
+    }
+
+    /**
+     * Propagates every sample forward through the network and finds the
+     * errors of the output neurons, without changing anything. Lets
+     * HogwildTrainer use the same forward pass before it changes the shared
+     * weights itself.
+     */
+    protected void forwardErrors() {
+        loss = 0;
+        forward();
+        outputErrors();
+    }
+
+    /**
+     * Returns the values of a hidden layer found by the last forward pass,
+     * one row per sample.
+     *
+     * @param l index of the layer
+     * @return the values
+     */
+    protected double[] getValues(final int l) {
+        return values[l];
+    }
+
+    /**
+     * Returns the errors of the output neurons found by the last forward
+     * pass, one row per sample.
+     *
+     * @return the errors
+     */
+    protected double[] getOutputErrors() {
+        return outputErrors;
+    }
+
+    /**
+     * Propagates every sample forward through the network.
+     */
+    private void forward() {
+        net.getInputWeights().multiplyBatch(inputs, count,
+                Network.INPUT_SCALE, values[0]);
+        activate(values[0], net.getLayer(0));
+
+        for (int l = 1; l < values.length; l++) {
+            net.getLayer(l - 1).getWeights().multiplyBatch(values[l - 1],
+                    count, 1, values[l]);
+            activate(values[l], net.getLayer(l));
+        }
+
+        int last = values.length - 1;
+        net.getLayer(last).getWeights().multiplyBatch(values[last], count, 1,
+                outputValues);
+
+        int outs = net.getOutputSize();
+        for (int b = 0; b < count; b++) {
+            for (int o = 0; o < outs; o++) {
+                outputValues[b * outs + o] += net.getOutputNeuron(o)
+                        .getBias();
+            }
+            loss += net.getLoss(outputValues, b * outs, keys[b]);
+            net.activateOutputs(outputValues, b * outs);
+        }
+    }
+
+    /**
+     * Propagates the errors of every sample back through the network, adding
+     * the changes to a gradient.
+     *
+     * @param gradient gradient to add the changes to
+     */
+    private void backward(final Gradient gradient) {
+        int outs = net.getOutputSize();
+        double[] outputBiases = gradient.getOutputBiases();
+
+        outputErrors();
+        for (int b = 0; b < count; b++) {
+            for (int o = 0; o < outs; o++) {
+                outputBiases[o] += outputErrors[b * outs + o];
+            }
+        }
+
+        //Loop through all layers reversed
+        for (int l = values.length - 1; l >= 0; l--) {
+            Layer layer = net.getLayer(l);
+            double[] nextErrors;
+
+            if (l == values.length - 1) {
+                nextErrors = outputErrors;
+            } else {
+                nextErrors = errors[l + 1];
+            }
+
+            //Send the errors back through the weights
+            layer.getWeights().multiplyTransposedBatch(nextErrors, count,
+                    errors[l]);
+
+            int size = layer.getSize();
+            double[] biases = gradient.getBiases(l);
+            Activation activation = layer.getActivation();
+            for (int b = 0; b < count; b++) {
+                for (int n = 0; n < size; n++) {
+                    errors[l][b * size + n] *= activation.derivative(
+                            values[l][b * size + n]);
+                    biases[n] += errors[l][b * size + n];
+                }
+            }
+
+            gradient.getWeights(l).addOuterBatch(values[l], 1, nextErrors,
+                    count);
+        }
+
+        gradient.getInputWeights().addOuterBatch(inputs, Network.INPUT_SCALE,
+                errors[0], count);
+    }
+
+    /**
+     * Finds the errors of the output neurons of every sample, the key
+     * pressed should be 1 and the rest 0.
+     */
+    private void outputErrors() {
+        int outs = net.getOutputSize();
+
+        for (int b = 0; b < count; b++) {
+            net.outputErrors(outputValues, b * outs, keys[b], rewards[b],
+                    outputErrors, b * outs);
+        }
+    }
+
+    /**
+     * Adds the biases to the weighted sums of every sample and squishes them
+     * with the layer's activation.
+     *
+     * @param sums weighted sums, one row per sample, replaced by the values
+     * @param layer the layer
+     */
+    private void activate(final double[] sums, final Layer layer) {
+        double[] biases = layer.getBiases();
+        Activation activation = layer.getActivation();
+
+        for (int b = 0; b < count; b++) {
+            int offset = b * biases.length;
+
+            for (int n = 0; n < biases.length; n++) {
+                sums[offset + n] = activation.apply(sums[offset + n]
+                        + biases[n]);
+            }
+        }
+    }
+}
@@ -16,18 +16,27 @@
  */
 package nnet;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import java.awt.AWTException;
-import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.event.InputEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleConsumer;
 
 /**
  * Network of layers.
@@ -36,6 +45,25 @@ import java.io.IOException;
  */
 final class Network {
 
+    /**
+     * Scales the 0 to 255 gray values of the input neurons between 0 and 1.
+     */
+    protected static final double INPUT_SCALE = 1.0 / 255;
+
+    /**
+     * Bytes of weight rows in a CSV file one thread reads at a time while
+     * loading. Each part opens the file again, so parts much smaller than
+     * this cost more than they save.
+     */
+    private static final int LOAD_BYTES = 1 << 21;
+
+    /**
+     * True if every network uses FastSigmoid instead of Math.exp, set with
+     * the nnet.fastSigmoid system property or setFastSigmoid.
+     */
+    private static volatile boolean fastSigmoid = Boolean.getBoolean(
+            "nnet.fastSigmoid");
+
     /**
      * name - Name of network. keyPressed - Key pressed for network to learn.
      * type - Type of network.
@@ -47,6 +75,11 @@ final class Network {
      */
     private Robot robot;
 
+    /**
+     * Where frames of the region come from, the screen unless set.
+     */
+    private FrameSource frameSource;
+
     /**
      * inputWidth - Width of input image. inputHeight - Height of input box.
      * regionX - X position of selected desktop region. regionY - Y position of
@@ -62,15 +95,94 @@ final class Network {
     private long timeTrained;
 
     /**
-     * Array of input neurons (read from region).
+     * single - true if the weights are stored as floats.
+     */
+    private boolean single;
+
+    /**
+     * Activation given to hidden layers when the network is made.
+     */
+    private Activation activation = Activation.SIGMOID;
+
+    /**
+     * softmax - true if the outputs are one softmax trained with
+     * cross-entropy, false if each is its own sigmoid.
+     */
+    private boolean softmax;
+
+    /**
+     * How blocks of the region are turned into input values.
+     */
+    private Sampling sampling = Sampling.AVERAGE;
+
+    /**
+     * Pixels read across and down each block when strided.
+     */
+    private int samplesPerSide = 2;
+
+    /**
+     * True if the network is saved to a binary file instead of a CSV file.
+     */
+    private boolean binary;
+
+    /**
+     * Part of the screen captured, moved to the region each frame.
+     */
+    private final Rectangle captureArea = new Rectangle();
+
+    /**
+     * Copy of the pixels of captures not stored as RGB ints, reused each
+     * frame.
      */
-    private INeuron[] inputNeurons;
+    private int[] frame;
+
+    /**
+     * Sums of the gray values of the last frame, for averaging blocks.
+     */
+    private final IntegralImage integral = new IntegralImage();
+
+    /**
+     * Pixels of the last frame as RGB ints, one row after another.
+     */
+    private int[] pixels;
+
+    /**
+     * pixelOffset - index of the top left pixel in pixels. pixelStride -
+     * distance from a pixel to the one below it.
+     */
+    private int pixelOffset, pixelStride;
+
+    /**
+     * Focused rows above each row of the input image.
+     */
+    private int[] focusRows;
+
+    /**
+     * Values of the input neurons (read from region).
+     */
+    private double[] inputValues;
+
+    /**
+     * Weights from every input neuron to the first hidden layer, one row per
+     * input neuron.
+     */
+    private Matrix inputWeights;
 
     /**
      * Array of hidden layers (process in between input and output neurons).
      */
     private Layer[] hiddenLayers;
 
+    /**
+     * Weighted sums of the last hidden layer for each output, plus its bias.
+     */
+    private double[] outputSums;
+
+    /**
+     * Values of the outputs while they are squished.
+     */
+    private double[] outputValues;
+
     /**
      * Array of output neurons (send keyboard commands).
      */
@@ -88,6 +200,7 @@ final class Network {
         //Creates robot to trap keyboard output
         try {
             robot = new Robot();
+            frameSource = new RobotFrameSource(robot);
         } catch (AWTException ex) {
             System.err.println(ex);
         }
@@ -99,28 +212,163 @@ final class Network {
      * @param n the name of the network
      * @param w the width of the input neuron gray scale image
      * @param h the height of the input neuron gray scale image
-     * @param ins the input neurons
+     * @param ins the weights of the input neurons
      * @param lays the hidden layers of the network
      * @param outs the output neurons of the network
      */
     protected Network(final String n, final int w, final int h,
-            final INeuron[] ins, final Layer[] lays, final ONeuron[] outs) {
+            final Matrix ins, final Layer[] lays, final ONeuron[] outs) {
         name = n;
         inputWidth = w;
         inputHeight = h;
-        inputNeurons = ins;
+        inputWeights = ins;
+        single = ins.isSingle();
         hiddenLayers = lays;
         outputNeurons = outs;
         timeTrained = 0;
+        makeBuffers();
 
         //Creates robot to trap keyboard ouput
         try {
             robot = new Robot();
+            frameSource = new RobotFrameSource(robot);
         } catch (AWTException ex) {
             System.err.println(ex);
         }
     }
 
+    /**
+     * Constructor for making a network the same shape as another, with its
+     * weights zeroed, to copy the other into. It has no robot.
+     *
+     * @param source the network to copy the shape of
+     */
+    private Network(final Network source) {
+        single = source.single;
+        inputWeights = new Matrix(source.inputWeights.getRows(),
+                source.inputWeights.getColumns(), single);
+        hiddenLayers = new Layer[source.hiddenLayers.length];
+        for (int i = 0; i < hiddenLayers.length; i++) {
+            hiddenLayers[i] = new Layer(source.hiddenLayers[i].getSize(),
+                    source.hiddenLayers[i].getNeuronWeightSize(), single);
+        }
+        outputNeurons = new ONeuron[source.outputNeurons.length];
+        for (int o = 0; o < outputNeurons.length; o++) {
+            outputNeurons[o] = source.outputNeurons[o].copy();
+        }
+        makeBuffers();
+    }
+
+    /**
+     * Copies the network, so the copy can be saved while this one keeps
+     * training. Only the fields and weights that are saved are copied.
+     *
+     * @param reuse an earlier copy to copy into if it is still the same
+     * shape, or null
+     * @return the copy
+     */
+    protected Network snapshot(final Network reuse) {
+        Network copy = reuse != null && reuse.isShapeOf(this) ? reuse
+                : new Network(this);
+        copyFields(copy);
+
+        inputWeights.copyTo(copy.inputWeights);
+        for (int i = 0; i < hiddenLayers.length; i++) {
+            hiddenLayers[i].copyTo(copy.hiddenLayers[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the network into an earlier copy of the same shape, only
+     * copying the blocks of weights that changed since, and marks which they
+     * were. The fields and biases are always copied.
+     *
+     * @param copy the earlier copy
+     * @param blockSize weights in each block
+     * @param changed array to mark changed blocks in for each matrix, the
+     * input weights then each hidden layer's weights, sized by
+     * NetworkFile.blocks
+     * @return the number of blocks that changed
+     */
+    protected int snapshotChanges(final Network copy, final int blockSize,
+            final boolean[][] changed) {
+        copyFields(copy);
+
+        int count = inputWeights.copyChanged(copy.inputWeights, blockSize,
+                changed[0]);
+        for (int i = 0; i < hiddenLayers.length; i++) {
+            Layer layer = copy.hiddenLayers[i];
+            System.arraycopy(hiddenLayers[i].getBiases(), 0,
+                    layer.getBiases(), 0, layer.getSize());
+            layer.setActivation(hiddenLayers[i].getActivation());
+            count += hiddenLayers[i].getWeights().copyChanged(
+                    layer.getWeights(), blockSize, changed[i + 1]);
+        }
+        return count;
+    }
+
+    /**
+     * Copies the fields that are saved and the output biases into a copy of
+     * the same shape.
+     *
+     * @param copy the copy
+     */
+    private void copyFields(final Network copy) {
+        copy.name = name;
+        copy.type = type;
+        copy.timeTrained = timeTrained;
+        copy.inputWidth = inputWidth;
+        copy.inputHeight = inputHeight;
+        copy.regionX = regionX;
+        copy.regionY = regionY;
+        copy.regionW = regionW;
+        copy.regionH = regionH;
+        copy.focusX = focusX;
+        copy.focusY = focusY;
+        copy.focusW = focusW;
+        copy.focusH = focusH;
+        copy.sampling = sampling;
+        copy.samplesPerSide = samplesPerSide;
+        copy.softmax = softmax;
+        copy.binary = binary;
+
+        for (int o = 0; o < outputNeurons.length; o++) {
+            copy.outputNeurons[o].setBias(outputNeurons[o].getBias());
+        }
+    }
+
+    /**
+     * Returns whether another network has the same precision, layer sizes
+     * and output keys, so it can be copied into this one.
+     *
+     * @param n the other network
+     * @return true if they are the same shape
+     */
+    protected boolean isShapeOf(final Network n) {
+        if (single != n.single
+                || inputWeights.getRows() != n.inputWeights.getRows()
+                || inputWeights.getColumns() != n.inputWeights.getColumns()
+                || hiddenLayers.length != n.hiddenLayers.length
+                || outputNeurons.length != n.outputNeurons.length) {
+            return false;
+        }
+        for (int i = 0; i < hiddenLayers.length; i++) {
+            if (hiddenLayers[i].getSize() != n.hiddenLayers[i].getSize()
+                    || hiddenLayers[i].getNeuronWeightSize()
+                    != n.hiddenLayers[i].getNeuronWeightSize()) {
+                return false;
+            }
+        }
+        for (int o = 0; o < outputNeurons.length; o++) {
+            if (!outputNeurons[o].getKeyName().equals(
+                    n.outputNeurons[o].getKeyName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Method for setting the name of the network.
      *
@@ -139,6 +387,137 @@ final class Network {
         type = t;
     }
 
+    /**
+     * Method for setting whether the weights are stored as floats, which
+     * halves the memory they take and the time spent reading them. Weights
+     * already made are converted.
+     *
+     * @param s true for floats, false for doubles
+     */
+    protected void setSinglePrecision(final boolean s) {
+        single = s;
+
+        if (inputWeights != null) {
+            inputWeights = inputWeights.toPrecision(s);
+            for (Layer hiddenLayer : hiddenLayers) {
+                hiddenLayer.setPrecision(s);
+            }
+        }
+    }
+
+    /**
+     * Method for setting the activation of every hidden layer, and of the
+     * layers made when the network is made.
+     *
+     * @param a the activation
+     */
+    protected void setActivation(final Activation a) {
+        activation = a;
+
+        if (hiddenLayers != null) {
+            for (Layer hiddenLayer : hiddenLayers) {
+                hiddenLayer.setActivation(a);
+            }
+        }
+    }
+
+    /**
+     * Method for setting whether the outputs are one softmax, a chance for
+     * each key that adds up to 1, trained with cross-entropy instead of
+     * separate sigmoids. Its error does not fade when an output is near 0 or
+     * 1 the way the sigmoid's slope does.
+     *
+     * @param s true for a softmax
+     */
+    protected void setSoftmax(final boolean s) {
+        softmax = s;
+    }
+
+    /**
+     * Returns whether the outputs are one softmax.
+     *
+     * @return true for a softmax
+     */
+    protected boolean isSoftmax() {
+        return softmax;
+    }
+
+    /**
+     * Method for setting whether the network is saved to a binary file
+     * instead of a CSV file. Loading a network sets this to the file it was
+     * loaded from.
+     *
+     * @param b true for a binary file
+     */
+    protected void setBinary(final boolean b) {
+        binary = b;
+    }
+
+    /**
+     * Returns whether the network is saved to a binary file.
+     *
+     * @return true for a binary file
+     */
+    protected boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Method for setting where frames of the region come from.
+     *
+     * @param f the frame source
+     */
+    protected void setFrameSource(final FrameSource f) {
+        frameSource = f;
+    }
+
+    /**
+     * Returns where frames of the region come from.
+     *
+     * @return the frame source, null if there is no screen and none was set
+     */
+    protected FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    /**
+     * Method for setting how blocks of the region are turned into input
+     * values.
+     *
+     * @param s the sampling
+     */
+    protected void setSampling(final Sampling s) {
+        sampling = s;
+    }
+
+    /**
+     * Returns how blocks of the region are turned into input values.
+     *
+     * @return the sampling
+     */
+    protected Sampling getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Method for setting the pixels read across and down each block when
+     * strided, so k * k pixels are read.
+     *
+     * @param k pixels per side, at least 1
+     */
+    protected void setSamplesPerSide(final int k) {
+        samplesPerSide = Math.max(1, k);
+    }
+
+    /**
+     * Returns the pixels read across and down each block when strided.
+     *
+     * @return pixels per side
+     */
+    protected int getSamplesPerSide() {
+        return samplesPerSide;
+    }
+
     /**
      * Method to set the training time of the network.
      *
@@ -238,6 +617,15 @@ final class Network {
         return type;
     }
 
+    /**
+     * Returns whether the weights are stored as floats.
+     *
+     * @return true for floats, false for doubles
+     */
+    protected boolean isSinglePrecision() {
+        return single;
+    }
+
     /**
      * Method to get the training time of the network.
      *
@@ -347,6 +735,21 @@ final class Network {
         return outputNeurons[output];
     }
 
+    /**
+     * Returns the index of the output neuron for a key.
+     *
+     * @param keyName name of the key
+     * @return index of the output neuron, -1 if no output has the key
+     */
+    protected int getOutputIndex(final String keyName) {
+        for (int o = 0; o < outputNeurons.length; o++) {
+            if (outputNeurons[o].getKeyName().equals(keyName)) {
+                return o;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Returns the size of the array of hidden layers.
      *
@@ -372,17 +775,25 @@ final class Network {
      * @return size of array of input neurons
      */
     protected int getInputSize() {
-        return inputNeurons.length;
+        return inputValues.length;
     }
 
     /**
-     * Returns the input neuron requested.
+     * Returns the values of the input neurons.
      *
-     * @param input the neuron to get
-     * @return the input neuron
+     * @return array of input values
      */
-    protected INeuron getInputNeuron(final int input) {
-        return inputNeurons[input];
+    protected double[] getInputValues() {
+        return inputValues;
+    }
+
+    /**
+     * Returns the weights of the input neurons.
+     *
+     * @return weight matrix, one row per input neuron
+     */
+    protected Matrix getInputWeights() {
+        return inputWeights;
     }
 
     /**
@@ -410,7 +821,7 @@ final class Network {
      * @return input neuron value
      */
     protected int getINeuronValue(final int n) {
-        return (int) inputNeurons[n].getValue();
+        return (int) inputValues[n];
     }
 
     /**
@@ -426,6 +837,11 @@ final class Network {
      * Method for moving the mouse to the region.
      */
     protected void moveMouse() {
+        //No mouse without a screen
+        if (robot == null) {
+            return;
+        }
+
         //Move mouse to region
         robot.mouseMove(regionX + regionW / 2, regionY + regionH / 2);
 
@@ -447,19 +863,20 @@ final class Network {
      * probabilities.
      */
     protected void setKeyDice() {
-        int mostActivated = 0;
-        double[] chance = new double[outputNeurons.length];
-
-        //Fill chance array
-        for (int o = 0; o < outputNeurons.length; o++) {
-            //Chance is based on the probability of a output
-            chance[o] = Math.random() * outputNeurons[o].getValue();
+        double total = 0;
+        for (ONeuron outputNeuron : outputNeurons) {
+            total += outputNeuron.getValue();
         }
 
-        //Take a guess based on the probability of each output
-        for (int o = 1; o < outputNeurons.length; o++) {
-            if (chance[o] > chance[mostActivated]) {
+        //Each key's chance is its value over the total, which for a softmax
+        //is already 1
+        double pick = Math.random() * total;
+        int mostActivated = outputNeurons.length - 1;
+        for (int o = 0; o < outputNeurons.length - 1; o++) {
+            pick -= outputNeurons[o].getValue();
+            if (pick < 0) {
                 mostActivated = o;
+                break;
             }
         }
 
@@ -492,6 +909,10 @@ final class Network {
         int prevKey = keyInt;
         setKeyDice();
 
+        //Without a screen the key is only picked
+        if (robot == null) {
+            return;
+        }
         if (prevKey != 0) {
             robot.keyRelease(prevKey);
         }
@@ -510,167 +931,387 @@ final class Network {
     }
 
     /**
-     * Converts String array of numbers to double array.
+     * Converts current frame of region into values for the input neurons.
+     */
+    protected void convertRegion() {
+        convertRegion(inputValues);
+    }
+
+    /**
+     * Converts current frame of region into input values stored somewhere
+     * other than the input neurons, so a frame can be made on another thread
+     * while the network runs. Only one thread may convert at a time.
      *
-     * @param s incoming string array
-     * @return array of double
+     * @param values array to store the input values in
      */
-    private double[] convertStringArray(final String[] s) {
-        double[] doubles = new double[s.length];
-        for (int i = 0; i < s.length; i++) {
-            doubles[i] = Double.parseDouble(s[i]);
-        }
-        return doubles;
+    protected void convertRegion(final double[] values) {
+        captureArea.setBounds(regionX, regionY, regionW, regionH);
+        convertImage(frameSource.capture(captureArea), values);
     }
 
     /**
-     * Converts current frame of region into values for the input neurons.
+     * Converts a frame of the region into values for the input neurons.
+     * Reads the image's own array of pixels when it is stored as RGB ints,
+     * as screen captures are, so no pixel is copied. Only averaging builds
+     * the summed-area table, the other samplings read single pixels.
+     *
+     * @param image the frame, as large as the region
      */
-    protected void convertRegion() {
-        int focusXInRegion = 0, focusYInRegion = 0, fColumn = 0, fRow = 0;
-        BufferedImage area = robot.createScreenCapture(
-                new Rectangle(regionX, regionY, regionW, regionH));
-        if (focusH > 0) {
-            focusXInRegion = focusX - regionX;
-            focusYInRegion = focusY - regionY;
+    protected void convertImage(final BufferedImage image) {
+        convertImage(image, inputValues);
+    }
+
+    /**
+     * Converts a frame of the region into input values.
+     *
+     * @param image the frame, as large as the region
+     * @param values array to store the input values in
+     */
+    private void convertImage(final BufferedImage image,
+            final double[] values) {
+        Raster raster = image.getRaster();
+        int imageType = image.getType();
+
+        if ((imageType == BufferedImage.TYPE_INT_RGB
+                || imageType == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel()
+                instanceof SinglePixelPackedSampleModel) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            pixels = buffer.getData();
+            pixelStride = ((SinglePixelPackedSampleModel) raster
+                    .getSampleModel()).getScanlineStride();
+
+            //Part of a larger image starts inside the array
+            pixelOffset = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * pixelStride
+                    - raster.getSampleModelTranslateX();
+        } else {
+            //Other formats are turned into RGB ints by getRGB
+            int w = image.getWidth(), h = image.getHeight();
+            if (frame == null || frame.length != w * h) {
+                frame = new int[w * h];
+            }
+            image.getRGB(0, 0, w, h, frame, 0, w);
+            pixels = frame;
+            pixelOffset = 0;
+            pixelStride = w;
         }
 
-        //The dimensions of a single pixel for the gray scale image
+        if (sampling == Sampling.AVERAGE) {
+            integral.build(pixels, pixelOffset, pixelStride,
+                    image.getWidth(), image.getHeight());
+        }
+        downsample(values);
+    }
+
+    /**
+     * Sets the input values to the gray value of their block of the frame,
+     * with blocks half as large in the focus region. Rows of inputs are split
+     * across the shared pool when there are enough of them.
+     *
+     * @param values array to store the input values in
+     */
+    private void downsample(final double[] values) {
         int miniH = regionH / inputHeight;
-        int miniW = regionW / inputWidth;
-        int nCount = 0;
+        if (focusRows == null || focusRows.length != inputHeight) {
+            focusRows = new int[inputHeight];
+        }
 
-        //for each row of input image pixels
+        //Focused rows above each row, so the rows can be done in any order
+        int fRow = 0;
         for (int r = 0; r < inputHeight; r++) {
+            focusRows[r] = fRow;
+            if (inFocusRows(r * miniH)) {
+                fRow++;
+            }
+        }
 
-            //for each column of input image pixels
-            for (int c = 0; c < inputWidth; c++) {
-
-                //Total value of all pixels in a mini-square after
-                //being converted to gray
-                int value = 0;
-
-                //If the converted region is within the focus region
-                if ((focusH > 0) && (c * miniW) > focusXInRegion - focusW / 2
-                        && (r * miniH) > focusYInRegion - focusH / 2
-                        && (c * miniW) < focusXInRegion + focusW + focusW / 2
-                        && (r * miniH) < focusYInRegion + focusH + focusH / 2) {
+        long cellCost = sampling == Sampling.STRIDED
+                ? samplesPerSide * samplesPerSide : 4;
+        Parallel.forRange(0, inputHeight, inputWidth * cellCost,
+                (from, to) -> {
+            for (int r = from; r < to; r++) {
+                downsampleRow(values, r, focusRows[r]);
+            }
+        });
+    }
 
-                    //iterates through what will be a single pixel of input
-                    //of the focus region
-                    for (int rp = 0; rp < miniH / 2; rp++) {
-                        for (int cp = 0; cp < miniW / 2; cp++) {
+    /**
+     * Sets the input values of one row of the input image.
+     *
+     * @param values array to store the input values in
+     * @param r the row
+     * @param fRow focused rows above it
+     */
+    private void downsampleRow(final double[] values, final int r,
+            final int fRow) {
+        int focusXInRegion = focusX - regionX;
+        int focusYInRegion = focusY - regionY;
+        int fColumn = 0;
 
-                            //Gets color at pixel
-                            Color color = new Color(area.getRGB(focusXInRegion
-                                    + cp + (fColumn * miniW / 2), focusYInRegion
-                                    + rp + (fRow * miniH / 2)));
+        //The dimensions of a single pixel for the gray scale image
+        int miniH = regionH / inputHeight;
+        int miniW = regionW / inputWidth;
+        int nCount = r * inputWidth;
+        boolean focusRow = inFocusRows(r * miniH);
+
+        //for each column of input image pixels
+        for (int c = 0; c < inputWidth; c++) {
+
+            //If the converted region is within the focus region
+            if (focusRow && (c * miniW) > focusXInRegion - focusW / 2
+                    && (c * miniW) < focusXInRegion + focusW + focusW / 2) {
+
+                //A quarter sized block of the focus region
+                values[nCount] = sample(focusXInRegion
+                        + (fColumn * miniW / 2), focusYInRegion
+                        + (fRow * miniH / 2), miniW / 2, miniH / 2,
+                        (miniW * miniH) / 4);
+                nCount++;
+                fColumn++;
+
+            } else {
+
+                //The mini-box dictated by the resolution
+                values[nCount] = sample(c * miniW, r * miniH, miniW, miniH,
+                        miniW * miniH);
+                nCount++;
+            }
+        }
+    }
 
-                            //Converts it to grayscale
-                            int grayColor = (color.getRed() + color.getBlue()
-                                    + color.getGreen()) / 3;
+    /**
+     * Returns whether a row of input image pixels starting at a height in
+     * the region is in the focused region.
+     *
+     * @param y top of the row in the region
+     * @return true if it is focused
+     */
+    private boolean inFocusRows(final int y) {
+        int focusYInRegion = focusY - regionY;
+        return focusH > 0 && y > focusYInRegion - focusH / 2
+                && y < focusYInRegion + focusH + focusH / 2;
+    }
 
-                            //Adds to value to be averaged later
-                            value += grayColor;
-                        }
-                    }
-                    //Sets the value of the input neuron to the average value
-                    //of all converted pixels in the mini-box dictated by
-                    //the resolution
-                    inputNeurons[nCount].setValue(
-                            value / ((miniW * miniH) / 4));
-                    nCount++;
-                    fColumn++;
-
-                } else {
-
-                    //iterates through what will be a single pixel of input
-                    for (int rp = 0; rp < miniH; rp++) {
-                        for (int cp = 0; cp < miniW; cp++) {
-
-                            //Gets color at pixel
-                            Color color = new Color(area.getRGB(cp
-                                    + (c * miniW), rp + (r * miniH)));
-
-                            //Converts it to grayscale
-                            int grayColor = (color.getRed() + color.getBlue()
-                                    + color.getGreen()) / 3;
-
-                            //Adds to value to be averaged later
-                            value += grayColor;
-                        }
+    /**
+     * Returns the gray value of a block of the frame by the network's
+     * sampling.
+     *
+     * @param x left edge of the block
+     * @param y top edge of the block
+     * @param w width of the block
+     * @param h height of the block
+     * @param area number of pixels an average is divided by
+     * @return the gray value
+     */
+    private int sample(final int x, final int y, final int w, final int h,
+            final int area) {
+        switch (sampling) {
+            case CENTER:
+                return gray(pixels[pixelOffset + (y + h / 2) * pixelStride
+                        + x + w / 2]);
+
+            case STRIDED:
+                //Middle of each of k by k equal parts of the block
+                int value = 0, k = samplesPerSide;
+                for (int j = 0; j < k; j++) {
+                    int row = pixelOffset + (y + (2 * j + 1) * h / (2 * k))
+                            * pixelStride + x;
+                    for (int i = 0; i < k; i++) {
+                        value += gray(pixels[row + (2 * i + 1) * w / (2 * k)]);
                     }
-                    //Sets the value of the input neuron to the average value
-                    //of all converted pixels in the mini-box dictated by
-                    //the resolution
-                    inputNeurons[nCount].setValue(
-                            value / (miniW * miniH));
-                    nCount++;
                 }
-            }
+                return value / (k * k);
 
-            //If the input pixel row you are calculating is in the focused
-            //region
-            if ((focusH > 0) && (r * miniH) > focusYInRegion - focusH / 2
-                    && (r * miniH) < focusYInRegion + focusH + focusH / 2) {
-                fRow++;
-            }
-            fColumn = 0;
+            default:
+                return integral.sum(x, y, w, h) / area;
         }
     }
 
+    /**
+     * Returns the gray value of a pixel, (red + green + blue) / 3 rounded
+     * down like Kernels.grayPrefix.
+     *
+     * @param p the pixel as an RGB int
+     * @return the gray value
+     */
+    private static int gray(final int p) {
+        return (((p >> 16) & 0xFF) + ((p >> 8) & 0xFF) + (p & 0xFF)) / 3;
+    }
+
     /**
      * Propagates forward through the network to set values for output neurons.
      */
     protected void calculate() {
-        //For each neuron in the first hidden layer
-        for (int n = 0; n < hiddenLayers[0].getSize(); n++) {
-            double value = 0;
+        //Multiply the inputs, scaled down to between 0 and 1, by the weights
+        //to the first hidden layer
+        inputWeights.multiply(inputValues, INPUT_SCALE,
+                hiddenLayers[0].getValues());
+        activate(hiddenLayers[0]);
+
+        for (int lay = 1; lay < hiddenLayers.length; lay++) {
+            //Multiply the previous layer by its weights to this layer
+            hiddenLayers[lay - 1].getWeights().multiply(
+                    hiddenLayers[lay - 1].getValues(),
+                    hiddenLayers[lay].getValues());
+            activate(hiddenLayers[lay]);
+        }
 
-            for (INeuron inputNeuron : inputNeurons) {
+        //Multiply the last hidden layer by its weights to the outputs
+        Layer last = hiddenLayers[hiddenLayers.length - 1];
+        last.getWeights().multiply(last.getValues(), outputSums);
 
-                //Multiply by the weight from each input neuron corresponding
-                //to the neuron and add together
-                value += inputNeuron.getValue() / 255
-                        * inputNeuron.getWeight(n);
+        //Sets output neuron values, keeping the sums for getLoss
+        for (int out = 0; out < outputNeurons.length; out++) {
+            outputSums[out] += outputNeurons[out].getBias();
+            outputValues[out] = outputSums[out];
+        }
+        activateOutputs(outputValues, 0);
+        for (int out = 0; out < outputNeurons.length; out++) {
+            outputNeurons[out].setValue(outputValues[out]);
+        }
+    }
+
+    /**
+     * Squishes the weighted sums of the outputs, biases already added, into
+     * their values with either a sigmoid each or one softmax.
+     *
+     * @param sums array holding the sums, replaced with the values
+     * @param offset index of the first output in the array
+     */
+    protected void activateOutputs(final double[] sums, final int offset) {
+        int end = offset + outputNeurons.length;
+
+        if (!softmax) {
+            for (int o = offset; o < end; o++) {
+                sums[o] = sigmoid(sums[o]);
             }
-            //Sets neuron value
-            hiddenLayers[0].setNeuronValue(n, sigmoid(value
-                    + hiddenLayers[0].getNeuronBias(n)));
+            return;
         }
 
-        for (int lay = 1; lay < hiddenLayers.length; lay++) {
+        //Subtracting the largest sum first keeps exp from overflowing
+        double largest = Double.NEGATIVE_INFINITY;
+        for (int o = offset; o < end; o++) {
+            largest = Math.max(largest, sums[o]);
+        }
+
+        double total = 0;
+        for (int o = offset; o < end; o++) {
+            sums[o] = Math.exp(sums[o] - largest);
+            total += sums[o];
+        }
+        for (int o = offset; o < end; o++) {
+            sums[o] /= total;
+        }
+    }
 
-            //For each neuron in the next layer
-            for (int n = 0; n < hiddenLayers[lay].getSize(); n++) {
-                double value = 0;
+    /**
+     * Finds the error of each output for a frame, the change that moves the
+     * pressed key toward 1 (scaled by the reward) and the rest toward 0.
+     * Sigmoids use the squared error times the sigmoid's slope, a softmax
+     * uses the slope of the cross-entropy, which is just the difference. A
+     * softmax has no target with no key pressed, so like getLoss the sample
+     * is left out and every error is 0.
+     *
+     * @param values array holding the output values
+     * @param offset index of the first output in values
+     * @param key index of the key pressed, -1 for none
+     * @param reward reward of the frame
+     * @param errors array to store the errors in
+     * @param errorOffset index of the first output in errors
+     */
+    protected void outputErrors(final double[] values, final int offset,
+            final int key, final double reward, final double[] errors,
+            final int errorOffset) {
+        if (softmax && key < 0) {
+            Arrays.fill(errors, errorOffset,
+                    errorOffset + outputNeurons.length, 0);
+            return;
+        }
 
-                //Multiply by the weight from each prev neuron corresponding
-                //to the neuron and add
-                for (int pn = 0; pn < hiddenLayers[lay - 1].getSize(); pn++) {
-                    value += hiddenLayers[lay - 1].getNeuronValue(pn)
-                            * hiddenLayers[lay - 1].getNeuronWeight(pn, n);
-                }
-                //Sets neuron value
-                hiddenLayers[lay].setNeuronValue(n, sigmoid(value
-                        + hiddenLayers[lay].getNeuronBias(n)));
+        for (int o = 0; o < outputNeurons.length; o++) {
+            double value = values[offset + o];
+            double target = o == key ? 1.0 : 0.0;
+
+            if (softmax) {
+                errors[errorOffset + o] = reward * (target - value);
+            } else if (o == key) {
+                errors[errorOffset + o] = reward * (1.0 - value)
+                        * sigmoidDer(value);
+            } else {
+                errors[errorOffset + o] = (0.0 - value) * sigmoidDer(value);
             }
         }
+    }
 
-        //For each output neuron
-        for (int out = 0; out < outputNeurons.length; out++) {
-            double value = 0;
-            //Multiply by the weight from each prev neuron corresponding
-            //to the neuron and add
-            for (int n = 0; n < hiddenLayers[hiddenLayers.length - 1].getSize();
-                    n++) {
-                value += hiddenLayers[hiddenLayers.length - 1].getNeuronValue(n)
-                        * hiddenLayers[hiddenLayers.length - 1].getNeuronWeight(
-                                n, out);
+    /**
+     * Returns how far the outputs of the last calculate() are from pressing
+     * a key: the cross-entropy for a softmax, found from the sums with
+     * log-sum-exp so it stays finite when the key's chance rounds to 0, or
+     * half the squared error for sigmoids.
+     *
+     * @param key index of the key
+     * @return the loss
+     */
+    protected double getLoss(final int key) {
+        return getLoss(outputSums, 0, key);
+    }
+
+    /**
+     * Returns the loss of one sample from the weighted sums of its outputs,
+     * biases added, before they are squished. The same as getLoss().
+     *
+     * @param sums array holding the sums
+     * @param offset index of the first output in the array
+     * @param key index of the key, -1 for none
+     * @return the loss
+     */
+    protected double getLoss(final double[] sums, final int offset,
+            final int key) {
+        int end = offset + outputNeurons.length;
+
+        if (softmax) {
+            //With no key pressed every target is 0, which a softmax can not
+            //be off from
+            if (key < 0) {
+                return 0;
+            }
+
+            double largest = Double.NEGATIVE_INFINITY;
+            for (int o = offset; o < end; o++) {
+                largest = Math.max(largest, sums[o]);
+            }
+
+            double total = 0;
+            for (int o = offset; o < end; o++) {
+                total += Math.exp(sums[o] - largest);
             }
-            //Sets output neuron value
-            outputNeurons[out].setValue(sigmoid(value
-                    + outputNeurons[out].getBias()));
+            return largest + Math.log(total) - sums[offset + key];
+        }
+
+        double loss = 0;
+        for (int o = offset; o < end; o++) {
+            double difference = (o - offset == key ? 1.0 : 0.0)
+                    - sigmoid(sums[o]);
+            loss += difference * difference;
+        }
+        return loss / 2;
+    }
+
+    /**
+     * Adds the biases to the weighted sums of a layer and squishes them with
+     * the layer's activation.
+     *
+     * @param layer the layer, whose values hold the weighted sums
+     */
+    private void activate(final Layer layer) {
+        double[] sums = layer.getValues();
+        double[] biases = layer.getBiases();
+        Activation a = layer.getActivation();
+
+        for (int n = 0; n < layer.getSize(); n++) {
+            sums[n] = a.apply(sums[n] + biases[n]);
         }
     }
 
@@ -680,15 +1321,44 @@ final class Network {
      * @param v value
      * @return squished value
      */
-    private double sigmoid(final double v) {
-        /**
-         * TODO: Optimize this by making a table of values and picking one
-         * closest.
-         */
-
+    protected static double sigmoid(final double v) {
+        if (fastSigmoid) {
+            return FastSigmoid.sigmoid(v);
+        }
         return 1 / (1 + Math.exp(-v));
     }
 
+    /**
+     * Method for setting whether every network, training and playing, finds
+     * the sigmoid from a table (within FastSigmoid.MAX_ERROR) instead of
+     * Math.exp.
+     *
+     * @param f true to use the table
+     */
+    protected static void setFastSigmoid(final boolean f) {
+        fastSigmoid = f;
+    }
+
+    /**
+     * Returns whether the sigmoid is found from a table.
+     *
+     * @return true if the table is used
+     */
+    protected static boolean isFastSigmoid() {
+        return fastSigmoid;
+    }
+
+    /**
+     * Method for computing the derivative of the sigmoid based on the value of
+     * a neuron.
+     *
+     * @param value the value of the neuron
+     * @return the slope of the neuron value
+     */
+    protected static double sigmoidDer(final double value) {
+        return value * (1.0 - value);
+    }
+
     /**
      * Initializes the network with random values for all weights and biases.
      * Requires that the output Neurons are set.
@@ -700,66 +1370,13 @@ final class Network {
      */
     protected void loadRandom(final int wid, final int heig, final int lay,
             final int neu) {
-        inputWidth = wid;
-        inputHeight = heig;
-        regionW = wid;
-        regionH = heig;
-
-        hiddenLayers = new Layer[lay]; //Make Layers
-        //Loop through all Layers
-        for (int i = 0; i < hiddenLayers.length; i++) {
-            Neuron[] n = new Neuron[neu]; //Make a neuron array for each Layer
-
-            for (int j = 0; j < n.length; j++) { //Loop through all Neurons
-
-                //If its not the last layer make a weights array based on
-                //how many neurons are in each layer
-                if (i != hiddenLayers.length - 1) {
-                    double[] weights = new double[neu];
-
-                    //Loop through all weights
-                    for (int w = 0; w < weights.length; w++) {
-
-                        //Set each weight randomly
-                        weights[w] = Math.random() * 2 - 1;
-                    }
-
-                    //Create each Neuron with its own weights to the next layer
-                    //and random bias.
-                    //Makes bias range larger because it is adjusted
-                    //more drastically
-                    n[j] = new Neuron(Math.random() * 2 - 1, weights);
-
-                } else { //if last hidden layer
-                    //Same stuff as above but a diffrent abount of connection
-                    //to next layer(output layer)
-                    double[] weights = new double[outputNeurons.length];
-
-                    for (int w = 0; w < weights.length; w++) {
-                        weights[w] = Math.random() * 2 - 1;
-                    }
-                    n[j] = new Neuron(Math.random() * 2 - 1, weights);
-                }
-            }
-            hiddenLayers[i] = new Layer(n);
-        }
-
-        //Multiplied width and height to get rectangle area
-        inputNeurons = new INeuron[wid * heig];
+        makeNetwork(wid, heig, lay, neu);
 
-        //Loop through input neurons
-        for (int i = 0; i < inputNeurons.length; i++) {
-
-            //Create weights for each neuron to the next layer
-            double[] weights = new double[hiddenLayers[0].getSize()];
-
-            for (int w = 0; w < weights.length; w++) {
-                weights[w] = Math.random() * 2 - 1;
-            }
-
-            //Set all input Neurons to have a base value of 0
-            inputNeurons[i] = new INeuron(weights);
+        //Set each weight and bias randomly
+        for (Layer hiddenLayer : hiddenLayers) {
+            hiddenLayer.fillRandom();
         }
+        inputWeights.fillRandom();
 
         try {
             save(); //Save network
@@ -778,6 +1395,25 @@ final class Network {
      */
     protected void loadZero(final int wid, final int heig, final int lay,
             final int neu) {
+        makeNetwork(wid, heig, lay, neu);
+
+        try {
+            save(); //Save network
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Makes the input neurons and hidden layers with all weights and biases
+     * set to zero. Requires that the output Neurons are set.
+     *
+     * @param wid the width in pixels of the grey scale image
+     * @param heig the height in pixels of the grey scale image
+     * @param lay the # of hidden layers in the network
+     * @param neu the # of neurons in the network
+     */
+    private void makeNetwork(final int wid, final int heig, final int lay,
+            final int neu) {
         inputWidth = wid;
         inputHeight = heig;
         regionW = wid;
@@ -786,186 +1422,422 @@ final class Network {
         hiddenLayers = new Layer[lay]; //Make Layers
         //Loop through all Layers
         for (int i = 0; i < hiddenLayers.length; i++) {
-            Neuron[] n = new Neuron[neu]; //Make a neuron array for each Layer
-
-            for (int j = 0; j < n.length; j++) { //Loop through all Neurons
-
-                //If its not the last layer make a weights array based on
-                //how many neurons are in each layer
-                if (i != hiddenLayers.length - 1) {
-                    double[] weights = new double[neu];
-
-                    //Loop through all weights
-                    for (int w = 0; w < weights.length; w++) {
 
-                        //Set each weight randomly
-                        weights[w] = 0;
-                    }
-
-                    //Create each Neuron with its own weights to the next layer
-                    //and random bias.
-                    //Makes bias range larger because it is adjusted
-                    //more drastically
-                    n[j] = new Neuron(0, weights);
-
-                } else { //if last hidden layer
-                    //Same stuff as above but a diffrent abount of connection
-                    //to next layer(output layer)
-                    double[] weights = new double[outputNeurons.length];
-
-                    for (int w = 0; w < weights.length; w++) {
-                        weights[w] = 0;
-                    }
-                    n[j] = new Neuron(0, weights);
-                }
+            //If its not the last layer it connects to the next layer,
+            //otherwise it connects to the output layer
+            if (i != hiddenLayers.length - 1) {
+                hiddenLayers[i] = new Layer(neu, neu, single);
+                hiddenLayers[i].setActivation(activation);
+            } else {
+                hiddenLayers[i] = new Layer(neu, outputNeurons.length,
+                        single);
+                hiddenLayers[i].setActivation(activation);
             }
-            hiddenLayers[i] = new Layer(n);
         }
 
-        //Multiplied width and height to get rectangle area
-        inputNeurons = new INeuron[wid * heig];
+        //Multiplied width and height to get rectangle area, with weights
+        //from each input neuron to the first layer
+        inputWeights = new Matrix(wid * heig, hiddenLayers[0].getSize(),
+                single);
+        makeBuffers();
+    }
 
-        //Loop through input neurons
-        for (int i = 0; i < inputNeurons.length; i++) {
+    /**
+     * Sets the input image size, weights, layers and outputs of a network
+     * read from a file, and makes the arrays used while calculating.
+     *
+     * @param wid the width in pixels of the grey scale image
+     * @param heig the height in pixels of the grey scale image
+     * @param inputs the weights of the input neurons
+     * @param layers the hidden layers
+     * @param outputs the output neurons
+     */
+    protected void setStructure(final int wid, final int heig,
+            final Matrix inputs, final Layer[] layers,
+            final ONeuron[] outputs) {
+        inputWidth = wid;
+        inputHeight = heig;
+        single = inputs.isSingle();
+        inputWeights = inputs;
+        hiddenLayers = layers;
+        outputNeurons = outputs;
+        makeBuffers();
+    }
 
-            //Create weights for each neuron to the next layer
-            double[] weights = new double[hiddenLayers[0].getSize()];
+    /**
+     * Makes the arrays used while calculating once the size of the network
+     * is known.
+     */
+    private void makeBuffers() {
+        inputValues = new double[inputWeights.getRows()];
+        outputSums = new double[outputNeurons.length];
+        outputValues = new double[outputNeurons.length];
+    }
+
+    /**
+     * Method for saving the network to its binary file or CSV file. The
+     * network is written to a temporary file that is then renamed over the
+     * network's file, so a save cut off part way leaves the last one whole.
+     * A binary network is only saved to its binary file, its CSV file is not
+     * updated (see NetworkFile).
+     *
+     * @throws IOException File Not Found
+     */
+    protected void save() throws IOException {
+        Path target = binary ? NetworkFile.getFile(name).toPath()
+                : Paths.get("networks", name + ".csv");
+        //Named per thread so a checkpoint and a save never share one, and
+        //created like any other file so it keeps the usual permissions
+        Path temp = target.resolveSibling(name + "."
+                + Thread.currentThread().getId() + ".tmp");
 
-            for (int w = 0; w < weights.length; w++) {
-                weights[w] = 0;
+        try {
+            if (binary) {
+                NetworkFile.write(this, temp.toFile());
+            } else {
+                saveCsv(temp.toFile());
             }
 
-            //Set all input Neurons to have a base value of 0
-            inputNeurons[i] = new INeuron(weights);
-        }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
 
-        try {
-            save(); //Save network
-        } catch (IOException ex) {
+            //The changes saved since the last binary file are in this one
+            if (binary) {
+                Files.deleteIfExists(NetworkFile.getDeltaFile(name)
+                        .toPath());
+            }
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
     /**
-     * Method for saving the network to a CSV file.
+     * Writes the network to a CSV file.
      *
-     * @throws IOException File Not Found
+     * @param file the file
+     * @throws IOException if the file can not be written
      */
-    protected void save() throws IOException {
+    private void saveCsv(final File file) throws IOException {
         //Creates file if its not there or saves over it
-        try (
-                FileWriter fWriter = new FileWriter("networks/" + name
-                        + ".csv"); CSVWriter writer = new CSVWriter(fWriter)) {
-
-            String[] row = {String.valueOf(inputWidth),
-                String.valueOf(inputHeight), type, String.valueOf(timeTrained),
-                String.valueOf(regionW), String.valueOf(regionH),
-                String.valueOf(regionX), String.valueOf(regionY),
-                String.valueOf(focusW), String.valueOf(focusH),
-                String.valueOf(focusX), String.valueOf(focusY)};
-            writer.writeNext(row, false);
-
-            row = new String[]{String.valueOf(inputNeurons.length)};
-            writer.writeNext(row, false);
-
-            for (INeuron inputNeuron : inputNeurons) {
+        try (CsvWriter writer = new CsvWriter(file)) {
+            writer.writeCell(inputWidth);
+            writer.writeCell(inputHeight);
+            writer.writeCell(type);
+            writer.writeCell(timeTrained);
+            writer.writeCell(regionW);
+            writer.writeCell(regionH);
+            writer.writeCell(regionX);
+            writer.writeCell(regionY);
+            writer.writeCell(focusW);
+            writer.writeCell(focusH);
+            writer.writeCell(focusX);
+            writer.writeCell(focusY);
+            writer.writeCell(single ? "float" : "double");
+            writer.writeCell(sampling.name());
+            writer.writeCell(samplesPerSide);
+            writer.endRow();
+
+            writer.writeCell(inputWeights.getRows());
+            writer.endRow();
+
+            for (int i = 0; i < inputWeights.getRows(); i++) {
                 //Save all input neurons
-                writer.writeNext(inputNeuron.getWeightsString(), false);
+                writer.writeRow(inputWeights, i);
             }
 
-            row = new String[]{String.valueOf(hiddenLayers.length)};
-            writer.writeNext(row, false);
+            writer.writeCell(hiddenLayers.length);
+            writer.endRow();
 
             for (Layer hiddenLayer : hiddenLayers) {
                 //Save all Neurons
-                //Temp Neuron array for each layer
-                Neuron[] tempNeurons = hiddenLayer.getNeurons();
-                row = new String[]{String.valueOf(tempNeurons.length)};
-                writer.writeNext(row, false);
+                writer.writeCell(hiddenLayer.getSize());
+                writer.writeCell(hiddenLayer.getActivation().name());
+                writer.endRow();
                 for (int j = 0; j < hiddenLayer.getSize(); j++) {
-                    row[0] = String.valueOf(tempNeurons[j].getBias());
-                    writer.writeNext(row, false);
-                    writer.writeNext(tempNeurons[j].getWeightsString(), false);
+                    writer.writeCell(hiddenLayer.getNeuronBias(j));
+                    writer.endRow();
+                    writer.writeRow(hiddenLayer.getWeights(), j);
                 }
             }
 
-            row = new String[]{String.valueOf(outputNeurons.length)};
-            writer.writeNext(row, false);
+            writer.writeCell(outputNeurons.length);
+            writer.writeCell(softmax ? "softmax" : "sigmoid");
+            writer.endRow();
 
             for (ONeuron outputNeuron : outputNeurons) {
                 //Save all Outputs
-                row = new String[]{outputNeuron.getKeyName(),
-                    String.valueOf(outputNeuron.getBias())};
-                writer.writeNext(row, false);
+                writer.writeCell(outputNeuron.getKeyName());
+                writer.writeCell(outputNeuron.getBias());
+                writer.endRow();
             }
-
         }
     }
 
     /**
-     * Method for loading network from a CSV file.
+     * Method for loading network from its binary file and the changes in its
+     * delta file, or its CSV file if it has not been converted.
      *
      * @throws IOException File Not Found
      */
     protected void load() throws IOException {
+        load(null);
+    }
+
+    /**
+     * Method for loading network from its binary file and the changes in its
+     * delta file, or its CSV file if it has not been converted. The weights
+     * are read across the shared pool's threads.
+     *
+     * @param progress told the fraction of the file read so far, from the
+     * threads reading it, may be null
+     * @throws IOException File Not Found
+     */
+    protected void load(final DoubleConsumer progress) throws IOException {
+        File binaryFile = NetworkFile.getFile(name);
+        binary = binaryFile.exists();
+        if (binary) {
+            int checksum = NetworkFile.read(this, binaryFile, progress);
+            NetworkFile.readDeltas(this, NetworkFile.getDeltaFile(name),
+                    checksum);
+            return;
+        }
+
+        File file = new File("networks/" + name + ".csv");
         try {
-            FileReader fReader = new FileReader("networks/" + name + ".csv");
-            CSVReader reader = new CSVReader(fReader);
-
-            String[] row = reader.readNext();
-            inputWidth = Integer.parseInt(row[0]);
-            inputHeight = Integer.parseInt(row[1]);
-            regionW = Integer.parseInt(row[4]);
-            regionH = Integer.parseInt(row[5]);
-            regionX = Integer.parseInt(row[6]);
-            regionY = Integer.parseInt(row[7]);
-            focusW = Integer.parseInt(row[8]);
-            focusH = Integer.parseInt(row[9]);
-            focusX = Integer.parseInt(row[10]);
-            focusY = Integer.parseInt(row[11]);
-            timeTrained = Integer.parseInt(row[3]);
-            type = row[2];
-
-            row = reader.readNext();
-            inputNeurons = new INeuron[Integer.parseInt(row[0])];
-
-            //load Input neurons
-            for (int i = 0; i < inputNeurons.length; i++) {
-                inputNeurons[i] = new INeuron(convertStringArray(
-                        reader.readNext()));
+            //Where each line starts, so the weights can be split up
+            long[] lines = CsvReader.index(file);
+            List<Rows> parts = new ArrayList<>();
+            int line = 2;
+
+            try (CsvReader reader = new CsvReader(file)) {
+                String[] row = reader.readRow();
+                inputWidth = Integer.parseInt(row[0]);
+                inputHeight = Integer.parseInt(row[1]);
+                regionW = Integer.parseInt(row[4]);
+                regionH = Integer.parseInt(row[5]);
+                regionX = Integer.parseInt(row[6]);
+                regionY = Integer.parseInt(row[7]);
+                focusW = Integer.parseInt(row[8]);
+                focusH = Integer.parseInt(row[9]);
+                focusX = Integer.parseInt(row[10]);
+                focusY = Integer.parseInt(row[11]);
+                timeTrained = Long.parseLong(row[3]);
+                type = row[2];
+
+                //Networks saved before the precision was added are doubles
+                single = row.length > 12 && row[12].equals("float");
+
+                //Networks saved before sampling was added average every
+                //pixel
+                sampling = row.length > 13 ? Sampling.valueOf(row[13])
+                        : Sampling.AVERAGE;
+                samplesPerSide = row.length > 14 ? Integer.parseInt(row[14])
+                        : 2;
+
+                row = reader.readRow();
+                int inputs = Integer.parseInt(row[0]);
+
+                //Input neurons, the first row tells how many weights each
+                //neuron has
+                if (inputs > 0) {
+                    inputWeights = new Matrix(inputs, reader.countCells(),
+                            single);
+                    split(parts, lines, inputWeights, null, line, 1);
+                }
+                line += inputs;
             }
 
-            row = reader.readNext();
-            hiddenLayers = new Layer[Integer.parseInt(row[0])];
+            try (CsvReader reader = reader(file, lines, line++)) {
+                hiddenLayers = new Layer[Integer.parseInt(
+                        reader.readRow()[0])];
+            }
 
             for (int i = 0; i < hiddenLayers.length; i++) { //load layers
-                row = reader.readNext();
-                Neuron[] tempNeurons = new Neuron[Integer.parseInt(row[0])];
-
-                for (int j = 0; j < tempNeurons.length; j++) {
-                    row = reader.readNext();
-                    tempNeurons[j] = new Neuron(Double.parseDouble(row[0]),
-                            convertStringArray(reader.readNext()));
+                try (CsvReader reader = reader(file, lines, line++)) {
+                    String[] row = reader.readRow();
+                    int neurons = Integer.parseInt(row[0]);
+
+                    //Layers saved before activations were added are sigmoid
+                    Activation layerActivation = row.length > 1
+                            ? Activation.valueOf(row[1]) : Activation.SIGMOID;
+
+                    //Each neuron has a row with its bias then one with its
+                    //weights
+                    if (neurons > 0) {
+                        reader.endRow();
+                        hiddenLayers[i] = new Layer(neurons,
+                                reader.countCells(), single);
+                        hiddenLayers[i].setActivation(layerActivation);
+                        split(parts, lines, hiddenLayers[i].getWeights(),
+                                hiddenLayers[i].getBiases(), line, 2);
+                    }
+                    line += 2 * neurons;
                 }
-                hiddenLayers[i] = new Layer(tempNeurons);
             }
 
-            row = reader.readNext();
-            outputNeurons = new ONeuron[Integer.parseInt(row[0])];
-            //load output neurons
-            for (int i = 0; i < outputNeurons.length; i++) {
-                row = reader.readNext();
-
-                try {
-                    outputNeurons[i] = new ONeuron(
-                            java.awt.event.KeyEvent.class.getField(row[0]),
-                            Double.parseDouble(row[1]));
-                } catch (NoSuchFieldException | SecurityException ex) {
-                    System.err.println(ex);
+            try (CsvReader reader = reader(file, lines, line)) {
+                String[] row = reader.readRow();
+                outputNeurons = new ONeuron[Integer.parseInt(row[0])];
+
+                //Networks saved before softmax was added are sigmoids
+                softmax = row.length > 1 && row[1].equals("softmax");
+
+                //load output neurons
+                for (int i = 0; i < outputNeurons.length; i++) {
+                    row = reader.readRow();
+
+                    try {
+                        outputNeurons[i] = new ONeuron(
+                                java.awt.event.KeyEvent.class.getField(
+                                        row[0]), Double.parseDouble(row[1]));
+                    } catch (NoSuchFieldException | SecurityException ex) {
+                        System.err.println(ex);
+                    }
                 }
             }
 
+            readRows(file, lines, parts,
+                    new LoadProgress(progress, lines[lines.length - 1]));
+            makeBuffers();
+
         } catch (FileNotFoundException ex) {
             System.err.println("That is not a network\n" + ex);
         }
     }
+
+    /**
+     * Opens a CSV file at the start of one of its lines.
+     *
+     * @param file the file
+     * @param lines where each line starts, then the length of the file
+     * @param line the line, from 0
+     * @return the reader
+     * @throws IOException if the file can not be opened or ends before the
+     * line
+     */
+    private static CsvReader reader(final File file, final long[] lines,
+            final int line) throws IOException {
+        if (line >= lines.length - 1) {
+            throw new IOException(file + " ends at line " + (lines.length - 1)
+                    + ", before the rest of the network");
+        }
+        return new CsvReader(file, lines[line], line + 1);
+    }
+
+    /**
+     * Splits the rows of a matrix into parts of about LOAD_BYTES, read by
+     * one thread each.
+     *
+     * @param parts the parts to add to
+     * @param lines where each line starts, then the length of the file
+     * @param weights the matrix
+     * @param biases one bias per row on the line before it, or null
+     * @param line the line of the first row, from 0
+     * @param stride lines per row
+     */
+    private static void split(final List<Rows> parts, final long[] lines,
+            final Matrix weights, final double[] biases, final int line,
+            final int stride) {
+        int rows = weights.getRows();
+        //A file that ends early is caught when the lines after are read
+        int last = Math.min(line + rows * stride, lines.length - 1);
+        long bytes = lines[last] - lines[Math.min(line, last)];
+        int perPart = (int) Math.max(1, Math.min(rows,
+                (long) rows * LOAD_BYTES / Math.max(1, bytes)));
+
+        for (int r = 0; r < rows; r += perPart) {
+            parts.add(new Rows(weights, biases, r, Math.min(rows,
+                    r + perPart), line + r * stride, stride));
+        }
+    }
+
+    /**
+     * Reads the weight rows of a CSV file into their matrices, splitting the
+     * parts across the shared pool.
+     *
+     * @param file the file
+     * @param lines where each line starts, then the length of the file
+     * @param parts the rows to read
+     * @param progress counts the bytes read
+     * @throws IOException if the file can not be read or has a row that is
+     * not the right size
+     */
+    private static void readRows(final File file, final long[] lines,
+            final List<Rows> parts, final LoadProgress progress)
+            throws IOException {
+        long cells = 0;
+        for (Rows part : parts) {
+            cells = Math.max(cells, (long) (part.to - part.from)
+                    * part.weights.getColumns());
+        }
+
+        try {
+            Parallel.forRange(0, parts.size(), cells, (from, to) -> {
+                for (int p = from; p < to; p++) {
+                    Rows part = parts.get(p);
+                    try (CsvReader reader = reader(file, lines, part.line)) {
+                        for (int r = part.from; r < part.to; r++) {
+                            if (part.biases != null) {
+                                part.biases[r] = reader.readDouble();
+                                reader.endRow();
+                            }
+                            reader.readRow(part.weights, r);
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    int end = part.line + (part.to - part.from) * part.stride;
+                    progress.add(lines[Math.min(end, lines.length - 1)]
+                            - lines[part.line]);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Rows of a matrix in a CSV file read by one thread.
+     */
+    private static final class Rows {
+
+        /**
+         * The matrix read into.
+         */
+        private final Matrix weights;
+
+        /**
+         * One bias for each row, on the line before it, or null.
+         */
+        private final double[] biases;
+
+        /**
+         * from - first row. to - row after the last. line - line of the
+         * first row, from 0. stride - lines per row.
+         */
+        private final int from, to, line, stride;
+
+        /**
+         * Constructor for rows of a matrix.
+         *
+         * @param w the matrix
+         * @param b the biases, or null
+         * @param f first row
+         * @param t row after the last
+         * @param l line of the first row, from 0
+         * @param s lines per row
+         */
+        private Rows(final Matrix w, final double[] b, final int f,
+                final int t, final int l, final int s) {
+            weights = w;
+            biases = b;
+            from = f;
+            to = t;
+            line = l;
+            stride = s;
+        }
+    }
 }
@@ -0,0 +1,948 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.DoubleConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary network file, which holds the same network as the CSV file but
+ * stores every weight as its raw bits, so nothing is formatted or parsed
+ * and a load is mostly one read of the file and a copy out of it.
+ *
+ * The file is little-endian. It starts with MAGIC and VERSION, then the
+ * fields of the CSV header: input width and height, type, time trained,
+ * the region and focus, precision, sampling and samples per side, and
+ * whether the outputs are a softmax. Then the shape: the input neurons and
+ * the weights each has, each hidden layer's size, weights per neuron and
+ * activation, and each output's key name and bias. Strings are an int
+ * length and UTF-8 bytes.
+ *
+ * After the shape, padded to 8 bytes, come the blocks of weights: the
+ * input weights, then each hidden layer's biases and weights, each block
+ * padded to 8 bytes. Weights are floats for single precision networks and
+ * doubles otherwise, biases are always doubles. The last int is the CRC32
+ * of everything before it.
+ *
+ * Checkpoints can save just what changed since the binary file was written
+ * by appending a segment to the network's delta file. A segment has a
+ * prefix (see DELTA_PREFIX), then the header and shape, each hidden
+ * layer's biases, and the blocks of DELTA_BLOCK weights that changed, each
+ * with the place of its matrix and block, ending with the CRC32 of the
+ * segment after the prefix. Loading applies the segments in order after
+ * the binary file, and saving the whole network deletes the delta file.
+ *
+ * Once a network has a binary file it is loaded from and saved to that
+ * file only. Its CSV file is left as it was when it was converted and is no
+ * longer updated, so tooling that reads the CSV file sees old weights until
+ * it is written again with -csv.
+ *
+ * Run with the names of networks to convert their CSV files to binary
+ * files, or with -csv first to write the CSV files of binary networks from
+ * their binary and delta files.
+ *
+ * @author Nick Vocaire
+ */
+final class NetworkFile {
+
+    /**
+     * First int of a binary network file, "NNNB" in ASCII.
+     */
+    protected static final int MAGIC = 0x424E4E4E;
+
+    /**
+     * Version of the file layout.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Extension of binary network files.
+     */
+    protected static final String EXTENSION = ".nnb";
+
+    /**
+     * First int of each segment of a delta file, "NNND" in ASCII.
+     */
+    protected static final int DELTA_MAGIC = 0x444E4E4E;
+
+    /**
+     * Extension of delta files.
+     */
+    protected static final String DELTA_EXTENSION = ".nnd";
+
+    /**
+     * Weights in each block of a delta file, 128 KB of doubles.
+     */
+    protected static final int DELTA_BLOCK = 1 << 14;
+
+    /**
+     * Bytes before each segment of a delta file: DELTA_MAGIC, the checksum
+     * of the binary file it was made from, the length of the segment and an
+     * unused int.
+     */
+    private static final int DELTA_PREFIX = 4 * Integer.BYTES;
+
+    /**
+     * Bytes collected before they are written.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Bytes each thread works out the CRC32 of at a time while reading.
+     */
+    private static final int CHECKSUM_PIECE = 1 << 20;
+
+    /**
+     * The CRC32 polynomial, with its bits reversed.
+     */
+    private static final int CRC_POLYNOMIAL = 0xEDB88320;
+
+    /**
+     * Channel of the file being written.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Bytes collected to be written.
+     */
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Checksum of the bytes written so far.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Bytes written so far.
+     */
+    private long length;
+
+    /**
+     * Constructor for writing to a file.
+     *
+     * @param c channel of the file
+     */
+    private NetworkFile(final FileChannel c) {
+        channel = c;
+    }
+
+    /**
+     * Converts CSV networks in the networks folder to binary files, or with
+     * -csv first writes binary networks back to their CSV files.
+     *
+     * @param args -csv or not, then names of the networks
+     * @throws IOException if a network can not be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("-csv")) {
+            for (int i = 1; i < args.length; i++) {
+                Network net = new Network(args[i]);
+                net.load();
+                //Saves to the CSV file and leaves the binary files alone
+                net.setBinary(false);
+                net.save();
+                System.out.println(args[i] + ": CSV written");
+            }
+            return;
+        }
+
+        for (String name : args) {
+            Network net = new Network(name);
+            if (getFile(name).exists()) {
+                System.out.println(name + " is already binary");
+                continue;
+            }
+
+            long start = System.nanoTime();
+            net.load();
+            long loaded = System.nanoTime();
+            net.setBinary(true);
+            net.save();
+            long saved = System.nanoTime();
+            new Network(name).load();
+            long reloaded = System.nanoTime();
+
+            System.out.printf("%s: CSV %d bytes loaded in %.1f ms%n", name,
+                    new File("networks/" + name + ".csv").length(),
+                    (loaded - start) / 1e6);
+            System.out.printf("%s: binary %d bytes saved in %.1f ms, loaded in %.1f ms%n",
+                    name, getFile(name).length(), (saved - loaded) / 1e6,
+                    (reloaded - saved) / 1e6);
+            System.out.println("networks/" + name + ".csv is no longer"
+                    + " updated, write it with -csv " + name);
+        }
+    }
+
+    /**
+     * Returns the binary file of a network in the networks folder.
+     *
+     * @param name name of the network
+     * @return the file, which may not exist
+     */
+    protected static File getFile(final String name) {
+        return new File("networks/" + name + EXTENSION);
+    }
+
+    /**
+     * Writes a network to a binary file, replacing what was there.
+     *
+     * @param net the network
+     * @param file the file
+     * @throws IOException if the file can not be written
+     */
+    protected static void write(final Network net, final File file)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            NetworkFile f = new NetworkFile(channel);
+            f.putHeader(net);
+
+            Matrix inputs = net.getInputWeights();
+            f.putMatrix(inputs);
+            for (int i = 0; i < net.getLayerSize(); i++) {
+                Layer layer = net.getLayer(i);
+                f.putDoubles(layer.getBiases(), 0, layer.getSize());
+                f.putMatrix(layer.getWeights());
+            }
+
+            f.flush(true);
+            f.out.putInt((int) f.crc.getValue());
+            f.flush(false);
+        }
+    }
+
+    /**
+     * Writes the header and shape of a network.
+     *
+     * @param net the network
+     * @throws IOException if they can not be written
+     */
+    private void putHeader(final Network net) throws IOException {
+        out.putInt(MAGIC).putInt(VERSION);
+        out.putInt(net.getInputResWidth()).putInt(net.getInputResHeight());
+        putString(net.getNetType());
+        out.putLong(net.getNetTrainTime());
+        out.putInt(net.getRegionWidth()).putInt(net.getRegionHeight())
+                .putInt(net.getRegionX()).putInt(net.getRegionY());
+        out.putInt(net.getFocusWidth()).putInt(net.getFocusHeight())
+                .putInt(net.getFocusX()).putInt(net.getFocusY());
+        out.put((byte) (net.isSinglePrecision() ? 1 : 0));
+        putString(net.getSampling().name());
+        out.putInt(net.getSamplesPerSide());
+        out.put((byte) (net.isSoftmax() ? 1 : 0));
+
+        Matrix inputs = net.getInputWeights();
+        out.putInt(inputs.getRows()).putInt(inputs.getColumns());
+        out.putInt(net.getLayerSize());
+        for (int i = 0; i < net.getLayerSize(); i++) {
+            Layer layer = net.getLayer(i);
+            room(2 * Integer.BYTES);
+            out.putInt(layer.getSize()).putInt(layer.getNeuronWeightSize());
+            putString(layer.getActivation().name());
+        }
+
+        room(Integer.BYTES);
+        out.putInt(net.getOutputSize());
+        for (int o = 0; o < net.getOutputSize(); o++) {
+            ONeuron output = net.getOutputNeuron(o);
+            putString(output.getKeyName());
+            room(Double.BYTES);
+            out.putDouble(output.getBias());
+        }
+        pad();
+    }
+
+    /**
+     * Writes a string as its length and UTF-8 bytes.
+     *
+     * @param s the string
+     * @throws IOException if the buffer could not be written to make room
+     */
+    private void putString(final String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        room(Integer.BYTES + bytes.length);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Writes the weights of a matrix as one block.
+     *
+     * @param m the matrix
+     * @throws IOException if they can not be written
+     */
+    private void putMatrix(final Matrix m) throws IOException {
+        putWeights(m, 0, m.getRows() * m.getColumns());
+    }
+
+    /**
+     * Writes a range of the weights of a matrix, in row-major order, as one
+     * block.
+     *
+     * @param m the matrix
+     * @param from first weight
+     * @param to weight after the last
+     * @throws IOException if they can not be written
+     */
+    private void putWeights(final Matrix m, final int from, final int to)
+            throws IOException {
+        if (m.isSingle()) {
+            float[] floats = m.getFloats();
+            for (int i = from; i < to;) {
+                room(Float.BYTES);
+                int n = Math.min(to - i, out.remaining() / Float.BYTES);
+                out.asFloatBuffer().put(floats, i, n);
+                out.position(out.position() + n * Float.BYTES);
+                i += n;
+            }
+            pad();
+        } else {
+            putDoubles(m.getData(), from, to);
+        }
+    }
+
+    /**
+     * Writes a range of an array of doubles as one block.
+     *
+     * @param values the doubles
+     * @param from first double
+     * @param to double after the last
+     * @throws IOException if they can not be written
+     */
+    private void putDoubles(final double[] values, final int from,
+            final int to) throws IOException {
+        for (int i = from; i < to;) {
+            room(Double.BYTES);
+            int n = Math.min(to - i, out.remaining() / Double.BYTES);
+            out.asDoubleBuffer().put(values, i, n);
+            out.position(out.position() + n * Double.BYTES);
+            i += n;
+        }
+    }
+
+    /**
+     * Writes zeros up to the next multiple of 8 bytes.
+     *
+     * @throws IOException if the buffer could not be written to make room
+     */
+    private void pad() throws IOException {
+        room(Long.BYTES);
+        while ((length + out.position()) % Long.BYTES != 0) {
+            out.put((byte) 0);
+        }
+    }
+
+    /**
+     * Writes what has been collected if the buffer does not have room for
+     * some more bytes.
+     *
+     * @param bytes bytes needed
+     * @throws IOException if the buffer can not be written
+     */
+    private void room(final int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            flush(true);
+        }
+    }
+
+    /**
+     * Writes the bytes collected to the file, adding them to the checksum.
+     *
+     * @param checksum true to add them to the checksum
+     * @throws IOException if they can not be written
+     */
+    private void flush(final boolean checksum) throws IOException {
+        out.flip();
+        if (checksum) {
+            crc.update(out.duplicate());
+        }
+        length += out.remaining();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Reads a network from a binary file, checking its checksum before
+     * anything is read. The file is read into memory and closed first, so
+     * it is not held open or mapped and can be saved over straight away.
+     * The checksum and the weights are split across the shared pool.
+     *
+     * @param net the network to read into
+     * @param file the file
+     * @param listener told the fraction of the file read so far, from the
+     * threads reading it, may be null
+     * @return the checksum of the file
+     * @throws IOException if the file can not be read, is not a binary
+     * network file or is damaged
+     */
+    protected static int read(final Network net, final File file,
+            final DoubleConsumer listener) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is over 2 GB");
+            }
+            in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                //Reads until the buffer is full or the file ends
+            }
+        }
+        in.flip();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = in.limit() - Integer.BYTES;
+        if (end < 2 * Integer.BYTES || in.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a binary network");
+        }
+        if (in.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException(file + " is binary network version "
+                    + in.getInt(Integer.BYTES));
+        }
+
+        //Every byte is read twice, once for the checksum and once copied
+        LoadProgress progress = new LoadProgress(listener, 2L * end);
+        if (checksum(in, end, progress) != in.getInt(end)) {
+            throw new IOException(file + " is damaged, its checksum does"
+                    + " not match");
+        }
+
+        in.position(2 * Integer.BYTES);
+        int width = in.getInt();
+        int height = in.getInt();
+        boolean single = getFields(in, net);
+
+        Matrix inputs = new Matrix(in.getInt(), in.getInt(), single);
+        Layer[] layers = new Layer[in.getInt()];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = new Layer(in.getInt(), in.getInt(), single);
+            layers[i].setActivation(Activation.valueOf(getString(in)));
+        }
+
+        ONeuron[] outputs = new ONeuron[in.getInt()];
+        for (int o = 0; o < outputs.length; o++) {
+            String key = getString(in);
+            try {
+                Field field = java.awt.event.KeyEvent.class.getField(key);
+                outputs[o] = new ONeuron(field, in.getDouble());
+            } catch (NoSuchFieldException | SecurityException ex) {
+                throw new IOException(file + " has unknown key " + key, ex);
+            }
+        }
+        skipPadding(in);
+
+        progress.add(in.position());
+        getMatrix(in, inputs, progress);
+        for (Layer layer : layers) {
+            in.asDoubleBuffer().get(layer.getBiases());
+            in.position(in.position() + layer.getSize() * Double.BYTES);
+            progress.add(layer.getSize() * Double.BYTES);
+            getMatrix(in, layer.getWeights(), progress);
+        }
+
+        net.setStructure(width, height, inputs, layers, outputs);
+        return in.getInt(end);
+    }
+
+    /**
+     * Reads the fields of the header after the input width and height into
+     * a network.
+     *
+     * @param in the file, at the type
+     * @param net the network
+     * @return true if the weights are stored as floats
+     */
+    private static boolean getFields(final ByteBuffer in, final Network net) {
+        net.setNetType(getString(in));
+        net.setNetTrainTime(in.getLong());
+        net.setRegionWidth(in.getInt());
+        net.setRegionHeight(in.getInt());
+        net.setRegionX(in.getInt());
+        net.setRegionY(in.getInt());
+        net.setFocusWidth(in.getInt());
+        net.setFocusHeight(in.getInt());
+        net.setFocusX(in.getInt());
+        net.setFocusY(in.getInt());
+        boolean single = in.get() != 0;
+        net.setSampling(Sampling.valueOf(getString(in)));
+        net.setSamplesPerSide(in.getInt());
+        net.setSoftmax(in.get() != 0);
+        return single;
+    }
+
+    /**
+     * Returns the checksum stored at the end of a binary network file.
+     *
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file can not be read
+     */
+    protected static int readChecksum(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, checksum, channel.size() - Integer.BYTES);
+            return checksum.getInt(0);
+        }
+    }
+
+    /**
+     * Returns the delta file of a network in the networks folder.
+     *
+     * @param name name of the network
+     * @return the file, which may not exist
+     */
+    protected static File getDeltaFile(final String name) {
+        return new File("networks/" + name + DELTA_EXTENSION);
+    }
+
+    /**
+     * Makes the arrays to mark changed blocks of a network's weights in, the
+     * input weights then each hidden layer's weights.
+     *
+     * @param net the network
+     * @return one array per matrix with one entry per block
+     */
+    protected static boolean[][] blocks(final Network net) {
+        boolean[][] changed = new boolean[net.getLayerSize() + 1][];
+        for (int m = 0; m < changed.length; m++) {
+            Matrix matrix = getMatrix(net, m);
+            int length = matrix.getRows() * matrix.getColumns();
+            changed[m] = new boolean[(length + DELTA_BLOCK - 1) / DELTA_BLOCK];
+        }
+        return changed;
+    }
+
+    /**
+     * Returns a matrix of a network by its place in the delta file, 0 for
+     * the input weights and 1 on for each hidden layer's weights.
+     *
+     * @param net the network
+     * @param m place of the matrix
+     * @return the matrix
+     */
+    private static Matrix getMatrix(final Network net, final int m) {
+        return m == 0 ? net.getInputWeights() : net.getLayer(m - 1)
+                .getWeights();
+    }
+
+    /**
+     * Appends a segment to a network's delta file with its fields, biases
+     * and the changed blocks of its weights. The length in the segment's
+     * prefix is written last, so a segment cut off part way is never read.
+     *
+     * @param net the network, as saved to its binary file plus the changes
+     * @param changed the blocks changed since the last save, from blocks
+     * @return bytes appended
+     * @throws IOException if the segment can not be written, in which case
+     * the file is left as it was
+     */
+    protected static long appendDelta(final Network net,
+            final boolean[][] changed) throws IOException {
+        String name = net.getNetName();
+        int base = readChecksum(getFile(name));
+
+        try (FileChannel channel = FileChannel.open(
+                getDeltaFile(name).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long start = channel.size();
+            channel.position(start);
+
+            try {
+                ByteBuffer prefix = ByteBuffer.allocate(DELTA_PREFIX)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                prefix.putInt(DELTA_MAGIC).putInt(base).putInt(0).putInt(0);
+                prefix.flip();
+                while (prefix.hasRemaining()) {
+                    channel.write(prefix);
+                }
+
+                NetworkFile f = new NetworkFile(channel);
+                f.putHeader(net);
+                for (int i = 0; i < net.getLayerSize(); i++) {
+                    Layer layer = net.getLayer(i);
+                    f.putDoubles(layer.getBiases(), 0, layer.getSize());
+                }
+
+                int count = 0;
+                for (boolean[] matrix : changed) {
+                    for (boolean block : matrix) {
+                        count += block ? 1 : 0;
+                    }
+                }
+                f.room(2 * Integer.BYTES);
+                f.out.putInt(DELTA_BLOCK).putInt(count);
+
+                for (int m = 0; m < changed.length; m++) {
+                    Matrix matrix = getMatrix(net, m);
+                    int length = matrix.getRows() * matrix.getColumns();
+                    for (int b = 0; b < changed[m].length; b++) {
+                        if (changed[m][b]) {
+                            f.room(2 * Integer.BYTES);
+                            f.out.putInt(m).putInt(b);
+                            f.putWeights(matrix, b * DELTA_BLOCK,
+                                    Math.min(length, (b + 1) * DELTA_BLOCK));
+                        }
+                    }
+                }
+
+                f.flush(true);
+                f.out.putInt((int) f.crc.getValue());
+                f.flush(false);
+
+                prefix.clear();
+                prefix.putInt(0, (int) f.length - Integer.BYTES);
+                prefix.limit(Integer.BYTES);
+                while (prefix.hasRemaining()) {
+                    channel.write(prefix, start + 2 * Integer.BYTES
+                            + prefix.position());
+                }
+                return DELTA_PREFIX + f.length;
+            } catch (IOException ex) {
+                channel.truncate(start);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Applies the segments of a delta file made from a binary file to a
+     * network read from it. Segments made from an earlier binary file are
+     * skipped. The file is cut at the first segment that is incomplete or
+     * damaged, which only happens when a save was cut off part way, so
+     * later segments are not added after it.
+     *
+     * @param net the network, just read from the binary file
+     * @param file the delta file
+     * @param base checksum of the binary file
+     * @throws IOException if the file can not be read, or has a segment that
+     * does not match the network
+     */
+    protected static void readDeltas(final Network net, final File file,
+            final int base) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long position = 0;
+        long size;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            size = channel.size();
+            ByteBuffer prefix = ByteBuffer.allocate(DELTA_PREFIX)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            while (position + DELTA_PREFIX <= size) {
+                prefix.clear();
+                readFully(channel, prefix, position);
+                int length = prefix.getInt(2 * Integer.BYTES);
+                long end = position + DELTA_PREFIX + length + Integer.BYTES;
+                if (prefix.getInt(0) != DELTA_MAGIC || length <= 0
+                        || end > size) {
+                    break;
+                }
+
+                ByteBuffer segment = ByteBuffer.allocate(length
+                        + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, segment, position + DELTA_PREFIX);
+                CRC32 crc = new CRC32();
+                crc.update(segment.array(), 0, length);
+                if ((int) crc.getValue() != segment.getInt(length)) {
+                    break;
+                }
+
+                if (prefix.getInt(Integer.BYTES) == base) {
+                    segment.position(0);
+                    segment.limit(length);
+                    applyDelta(net, segment, file);
+                }
+                position = end;
+            }
+        }
+
+        if (position < size) {
+            System.err.println("Cutting off the end of " + file
+                    + ", it was not saved completely");
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+    }
+
+    /**
+     * Applies a segment of a delta file to a network.
+     *
+     * @param net the network
+     * @param in the segment, after its prefix
+     * @param file the delta file
+     * @throws IOException if the segment does not match the network
+     */
+    private static void applyDelta(final Network net, final ByteBuffer in,
+            final File file) throws IOException {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException(file + " has a segment of another version");
+        }
+        in.getInt(); //Input width and height only change with the shape
+        in.getInt();
+        boolean single = getFields(in, net);
+
+        boolean same = single == net.isSinglePrecision()
+                && in.getInt() == net.getInputWeights().getRows()
+                && in.getInt() == net.getInputWeights().getColumns()
+                && in.getInt() == net.getLayerSize();
+        for (int i = 0; same && i < net.getLayerSize(); i++) {
+            Layer layer = net.getLayer(i);
+            same = in.getInt() == layer.getSize()
+                    && in.getInt() == layer.getNeuronWeightSize();
+            layer.setActivation(Activation.valueOf(getString(in)));
+        }
+        same = same && in.getInt() == net.getOutputSize();
+        for (int o = 0; same && o < net.getOutputSize(); o++) {
+            ONeuron output = net.getOutputNeuron(o);
+            same = getString(in).equals(output.getKeyName());
+            output.setBias(in.getDouble());
+        }
+        if (!same) {
+            throw new IOException(file + " does not match the shape of the"
+                    + " network");
+        }
+        skipPadding(in);
+
+        for (int i = 0; i < net.getLayerSize(); i++) {
+            Layer layer = net.getLayer(i);
+            in.asDoubleBuffer().get(layer.getBiases(), 0, layer.getSize());
+            in.position(in.position() + layer.getSize() * Double.BYTES);
+        }
+
+        int blockSize = in.getInt();
+        int count = in.getInt();
+        for (int c = 0; c < count; c++) {
+            Matrix matrix = getMatrix(net, in.getInt());
+            int from = in.getInt() * blockSize;
+            int to = Math.min(matrix.getRows() * matrix.getColumns(),
+                    from + blockSize);
+
+            if (matrix.isSingle()) {
+                in.asFloatBuffer().get(matrix.getFloats(), from, to - from);
+                in.position(in.position() + (to - from) * Float.BYTES);
+                skipPadding(in);
+            } else {
+                in.asDoubleBuffer().get(matrix.getData(), from, to - from);
+                in.position(in.position() + (to - from) * Double.BYTES);
+            }
+        }
+    }
+
+    /**
+     * Reads from a channel at a position until a buffer is full.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position where to start reading
+     * @throws IOException if the channel ends first or can not be read
+     */
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Reads a string stored as its length and UTF-8 bytes.
+     *
+     * @param in the file
+     * @return the string
+     */
+    private static String getString(final ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies a block of weights into a matrix, split by rows across the
+     * shared pool, and moves past it.
+     *
+     * @param in the file, at the block
+     * @param m the matrix
+     * @param progress counts the bytes copied
+     */
+    private static void getMatrix(final ByteBuffer in, final Matrix m,
+            final LoadProgress progress) {
+        int start = in.position();
+        int columns = m.getColumns();
+        int width = m.isSingle() ? Float.BYTES : Double.BYTES;
+
+        Parallel.forRange(0, m.getRows(), columns, (from, to) -> {
+            //Each range reads through its own view of the buffer
+            ByteBuffer rows = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            rows.position(start + from * columns * width);
+            if (m.isSingle()) {
+                rows.asFloatBuffer().get(m.getFloats(), from * columns,
+                        (to - from) * columns);
+            } else {
+                rows.asDoubleBuffer().get(m.getData(), from * columns,
+                        (to - from) * columns);
+            }
+            progress.add((long) (to - from) * columns * width);
+        });
+
+        in.position(start + m.getRows() * columns * width);
+        if (m.isSingle()) {
+            skipPadding(in);
+        }
+    }
+
+    /**
+     * Works out the CRC32 of the start of a file in pieces across the shared
+     * pool, then puts the pieces' CRCs together.
+     *
+     * @param in the file
+     * @param length bytes to check
+     * @param progress counts the bytes checked
+     * @return the CRC32
+     */
+    private static int checksum(final ByteBuffer in, final int length,
+            final LoadProgress progress) {
+        int pieces = Math.max(1, (length + CHECKSUM_PIECE - 1)
+                / CHECKSUM_PIECE);
+        int[] crcs = new int[pieces];
+
+        Parallel.forRange(0, pieces, CHECKSUM_PIECE, (from, to) -> {
+            CRC32 crc = new CRC32();
+            for (int p = from; p < to; p++) {
+                int start = p * CHECKSUM_PIECE;
+                int size = Math.min(CHECKSUM_PIECE, length - start);
+                ByteBuffer piece = in.duplicate();
+                piece.limit(start + size);
+                piece.position(start);
+                crc.reset();
+                crc.update(piece);
+                crcs[p] = (int) crc.getValue();
+                progress.add(size);
+            }
+        });
+
+        int crc = crcs[0];
+        for (int p = 1; p < pieces; p++) {
+            crc = combine(crc, crcs[p], Math.min(CHECKSUM_PIECE,
+                    length - p * CHECKSUM_PIECE));
+        }
+        return crc;
+    }
+
+    /**
+     * Works out the CRC32 of two pieces of bytes one after the other from
+     * the CRC32 of each, the way zlib's crc32_combine does: the first CRC is
+     * moved past the second piece's length of zeros by squaring the matrix
+     * that moves it past one zero bit, then the second CRC is added.
+     *
+     * @param crc1 CRC32 of the first piece
+     * @param crc2 CRC32 of the second piece
+     * @param length2 bytes in the second piece
+     * @return CRC32 of both pieces
+     */
+    private static int combine(final int crc1, final int crc2,
+            final long length2) {
+        int[] even = new int[Integer.SIZE];
+        int[] odd = new int[Integer.SIZE];
+
+        //Moves a CRC past one zero bit
+        odd[0] = CRC_POLYNOMIAL;
+        for (int n = 1; n < Integer.SIZE; n++) {
+            odd[n] = 1 << n - 1;
+        }
+        square(even, odd);
+        square(odd, even);
+
+        //Squares into 1 byte, 2 bytes, 4 bytes... of zeros for each bit of
+        //the length
+        int crc = crc1;
+        long length = length2;
+        while (length != 0) {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length >>= 1;
+        }
+        return crc ^ crc2;
+    }
+
+    /**
+     * Multiplies a vector by a 32 by 32 matrix over GF(2).
+     *
+     * @param matrix the matrix, one int per column
+     * @param vector the vector
+     * @return the product
+     */
+    private static int times(final int[] matrix, final int vector) {
+        int sum = 0;
+        int v = vector;
+        for (int n = 0; v != 0; n++, v >>>= 1) {
+            if ((v & 1) != 0) {
+                sum ^= matrix[n];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Squares a 32 by 32 matrix over GF(2).
+     *
+     * @param square the matrix the square is put in
+     * @param matrix the matrix
+     */
+    private static void square(final int[] square, final int[] matrix) {
+        for (int n = 0; n < Integer.SIZE; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Moves past the zeros up to the next multiple of 8 bytes.
+     *
+     * @param in the file
+     */
+    private static void skipPadding(final ByteBuffer in) {
+        in.position((in.position() + Long.BYTES - 1) & -Long.BYTES);
+    }
+}
@@ -34,15 +34,20 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import javax.imageio.ImageIO;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 /**
  * A program for creating neural networks.
@@ -56,7 +61,7 @@ public final class NeuralNetGUI {
     private static final int MENUWIDTH = 400;
     private static final int MENUHEIGHT = 400;
     private static final int TRAINWIDTH = 300;
-    private static final int TRAINHEIGHT = 250;
+    private static final int TRAINHEIGHT = 270;
     //Scale of the sceenshot when selecting a region
     private static final int REGIONSCALE = 2;
 
@@ -65,11 +70,12 @@ public final class NeuralNetGUI {
 
     private static JFrame menu, brainMap, gray, region, trainer;
     private static JTextField resWidth, resHeight, layers, outputs, neurons,
-            name, updates, learnRate;
+            name, updates, learnRate, batchSize;
     private static JLabel resWidthText, resHeightText, layersText, outputsText,
             outputNumText, keyText, neuronText, nameText, networkName,
             nameError, trainerText, updatesText, keyPressed, learnRateText,
-            hiddenLayerDisplayed, timeTrained;
+            batchSizeText, activationText, hiddenLayerDisplayed, timeTrained,
+            samplingText;
     private static JButton newNet, loadNet, brain, image, createNetwork,
             pickOutputs, setNumOutputs, setAllOutputs, pickRegion, setRegion,
             hiddenLayerRight, hiddenLayerLeft, regionInc, regionMin, regionLeft,
@@ -77,8 +83,13 @@ public final class NeuralNetGUI {
             stopTrainer, play, stopPlaying;
     private static ButtonGroup networkTypes, regionSelection;
     private static JRadioButton supervised, reinforcement, mRegion, fRegion;
+    private static JCheckBox singlePrecision, quantizedPlay, fastSigmoid,
+            softmaxOutputs, asyncCapture, recordSamples, lockFree;
     private static JComboBox networkList, outputsList, keyList;
+    private static JComboBox<Activation> activationList;
+    private static JComboBox<Sampling> samplingList;
     private static JPanel mPanel, iPanel, rPanel, tPanel, bPanel;
+    private static JProgressBar loadProgress;
     private static File[] networkFiles;
     private static BufferedImage nNetPic, screenshot;
     private static Field[] keyEventFields;
@@ -145,14 +156,18 @@ public final class NeuralNetGUI {
     private static void searchNetworks() {
         File networkFolder = new File("networks");
         networkFiles = networkFolder.listFiles();
-        networkNames = new String[networkFiles.length];
-        //Puts the file names in a String array
-        for (int i = 0; i < networkFiles.length; i++) {
-            if (networkFiles[i].isFile()) {
-                networkNames[i] = networkFiles[i].getName().substring(0,
-                        networkFiles[i].getName().lastIndexOf("."));
+        //Puts the file names in a String array, once for networks that have
+        //both a CSV and a binary file
+        Set<String> names = new LinkedHashSet<>();
+        for (File networkFile : networkFiles) {
+            //Skips temporary files left by a save that was cut off
+            if (networkFile.isFile()
+                    && !networkFile.getName().endsWith(".tmp")) {
+                names.add(networkFile.getName().substring(0,
+                        networkFile.getName().lastIndexOf(".")));
             }
         }
+        networkNames = names.toArray(new String[names.size()]);
     }
 
     /**
@@ -276,6 +291,7 @@ public final class NeuralNetGUI {
         name = new JTextField("Bestfriend");
         updates = new JTextField("10");
         learnRate = new JTextField(".1");
+        batchSize = new JTextField("1");
     }
 
     /**
@@ -316,6 +332,12 @@ public final class NeuralNetGUI {
         outputsList = new JComboBox();
         outputsList.setActionCommand("outputNumChanged");
         outputsList.addActionListener(new ButtonHandler());
+
+        activationList = new JComboBox<>(Activation.values());
+
+        samplingList = new JComboBox<>(Sampling.values());
+        samplingList.setActionCommand("samplingChanged");
+        samplingList.addActionListener(new ButtonHandler());
     }
 
     /**
@@ -324,6 +346,8 @@ public final class NeuralNetGUI {
     private static void setBounds() {
         newNet.setBounds(40, 225, 120, 40);
         loadNet.setBounds(225, 240, 120, 30);
+        singlePrecision.setBounds(225, 275, 130, 20);
+        loadProgress.setBounds(225, 300, 120, 12);
         brain.setBounds(150, 205, 100, 20);
         networkName.setBounds(155, 150, 120, 20);
         image.setBounds(130, 230, 140, 20);
@@ -351,19 +375,31 @@ public final class NeuralNetGUI {
         resHeight.setBounds(225, 205, 120, 20);
         resHeightText.setBounds(225, 185, 100, 20);
         nameError.setBounds(30, 250, 140, 20);
+        activationText.setBounds(40, 275, 120, 20);
+        activationList.setBounds(40, 295, 120, 20);
+        softmaxOutputs.setBounds(225, 305, 130, 20);
+        samplingText.setBounds(140, 285, 120, 20);
+        samplingList.setBounds(140, 305, 120, 20);
         pickRegion.setBounds(140, 180, 120, 20);
         trainerText.setBounds(77, 10, 150, 40);
         openTrainer.setBounds(150, 255, 100, 20);
-        updatesText.setBounds(100, 50, 100, 20);
-        updates.setBounds(100, 75, 100, 20);
+        updatesText.setBounds(25, 50, 100, 20);
+        updates.setBounds(25, 75, 100, 20);
         startTrainer.setBounds(25, 170, 120, 30);
         stopTrainer.setBounds(90, 140, 120, 30);
         play.setBounds(155, 170, 120, 30);
         stopPlaying.setBounds(85, 140, 120, 30);
         keyPressed.setBounds(50, 45, 250, 30);
         timeTrained.setBounds(50, 80, 250, 30);
-        learnRate.setBounds(100, 125, 100, 20);
-        learnRateText.setBounds(100, 100, 100, 20);
+        learnRate.setBounds(175, 75, 100, 20);
+        learnRateText.setBounds(175, 50, 100, 20);
+        batchSize.setBounds(25, 125, 100, 20);
+        batchSizeText.setBounds(25, 100, 100, 20);
+        quantizedPlay.setBounds(175, 125, 100, 20);
+        fastSigmoid.setBounds(175, 100, 110, 20);
+        asyncCapture.setBounds(175, 145, 120, 20);
+        recordSamples.setBounds(25, 148, 130, 20);
+        lockFree.setBounds(25, 202, 130, 20);
     }
 
     /**
@@ -381,6 +417,9 @@ public final class NeuralNetGUI {
         nameError = new JLabel("ERROR: NAME TAKEN");
         updatesText = new JLabel("Updates/Secound");
         learnRateText = new JLabel("Learning Rate");
+        batchSizeText = new JLabel("Batch Size");
+        activationText = new JLabel("Hidden Activation");
+        samplingText = new JLabel("Input Sampling");
 
         timeTrained = new JLabel();
         timeTrained.setFont(new Font("Dialog", Font.BOLD, 18));
@@ -396,6 +435,9 @@ public final class NeuralNetGUI {
 
         keyPressed = new JLabel();
         keyPressed.setFont(new Font("Dialog", Font.BOLD, 18));
+
+        //Shown under the load button while a network loads
+        loadProgress = new JProgressBar(0, 1000);
     }
 
     /**
@@ -408,6 +450,32 @@ public final class NeuralNetGUI {
         loadNet = new JButton("Load Network");
         loadNet.addActionListener(new ButtonHandler());
 
+        //Used when a network is made or loaded
+        singlePrecision = new JCheckBox("32-bit Weights");
+        singlePrecision.setOpaque(false);
+
+        //Used when a network is made
+        softmaxOutputs = new JCheckBox("Softmax Outputs");
+        softmaxOutputs.setOpaque(false);
+
+        //Used when playing
+        quantizedPlay = new JCheckBox("8-bit Play");
+        quantizedPlay.setOpaque(false);
+
+        //Used when training or playing
+        fastSigmoid = new JCheckBox("Fast Sigmoid");
+        fastSigmoid.setOpaque(false);
+
+        asyncCapture = new JCheckBox("Async Capture");
+        asyncCapture.setOpaque(false);
+
+        //Used when training
+        recordSamples = new JCheckBox("Record Samples");
+        recordSamples.setOpaque(false);
+
+        lockFree = new JCheckBox("Lock-free Train");
+        lockFree.setOpaque(false);
+
         brain = new JButton("Show Brain");
         brain.addActionListener(new ButtonHandler());
 
@@ -478,6 +546,7 @@ public final class NeuralNetGUI {
         mPanel.add(newNet);
         mPanel.add(loadNet);
         mPanel.add(networkList);
+        mPanel.add(singlePrecision);
 
         iPanel = new ImagePanel();
 
@@ -505,6 +574,13 @@ public final class NeuralNetGUI {
         tPanel.add(updatesText);
         tPanel.add(learnRate);
         tPanel.add(learnRateText);
+        tPanel.add(batchSize);
+        tPanel.add(batchSizeText);
+        tPanel.add(quantizedPlay);
+        tPanel.add(fastSigmoid);
+        tPanel.add(asyncCapture);
+        tPanel.add(recordSamples);
+        tPanel.add(lockFree);
         tPanel.add(startTrainer);
         tPanel.add(play);
     }
@@ -546,6 +622,9 @@ public final class NeuralNetGUI {
         mPanel.add(nameText);
         mPanel.add(resHeight);
         mPanel.add(resHeightText);
+        mPanel.add(activationList);
+        mPanel.add(activationText);
+        mPanel.add(softmaxOutputs);
         menu.revalidate();
         menu.repaint();
     }
@@ -560,6 +639,9 @@ public final class NeuralNetGUI {
         mPanel.removeAll();
         mPanel.add(networkName);
         mPanel.add(pickRegion);
+        samplingList.setSelectedItem(loadedNetwork.getSampling());
+        mPanel.add(samplingText);
+        mPanel.add(samplingList);
         menu.revalidate();
         menu.repaint();
     }
@@ -575,6 +657,13 @@ public final class NeuralNetGUI {
         tPanel.add(trainerText);
         tPanel.add(learnRate);
         tPanel.add(learnRateText);
+        tPanel.add(batchSize);
+        tPanel.add(batchSizeText);
+        tPanel.add(quantizedPlay);
+        tPanel.add(fastSigmoid);
+        tPanel.add(asyncCapture);
+        tPanel.add(recordSamples);
+        tPanel.add(lockFree);
         tPanel.add(play);
         trainer.revalidate();
         trainer.repaint();
@@ -638,10 +727,11 @@ public final class NeuralNetGUI {
                     break;
 
                 case "Stop Training":
+                    //Waits for the trainer to finish before saving
                     networkTrainer.stopTraining();
 
                     try {
-                        loadedNetwork.save();
+                        networkTrainer.saveNetwork();
                     } catch (IOException ex) {
                         System.err.println(ex);
                     }
@@ -667,6 +757,11 @@ public final class NeuralNetGUI {
                                     getSelectedIndex()]);
                     break;
 
+                case "samplingChanged":
+                    loadedNetwork.setSampling((Sampling) samplingList
+                            .getSelectedItem());
+                    break;
+
                 case "outputNumChanged":
                     keyList.setSelectedItem(outputNeurons[Integer.parseInt(
                             outputsList.getSelectedItem().toString()) - 1]
@@ -806,14 +901,44 @@ public final class NeuralNetGUI {
          * Load saved network.
          */
         private static void loadNetwork() {
-            try {
-                loadedNetwork = new Network(networkList.
-                        getSelectedItem().toString());
-                loadedNetwork.load();
-
-                loadedNetworkMenu();
-            } catch (IOException ex) {
-            }
+            Network network = new Network(networkList.getSelectedItem()
+                    .toString());
+            boolean single = singlePrecision.isSelected();
+
+            loadNet.setEnabled(false);
+            loadProgress.setValue(0);
+            mPanel.add(loadProgress);
+            menu.repaint();
+
+            //Large networks take a while, so they load off the event thread
+            //and the bar shows how much of the file has been read
+            new Thread(() -> {
+                boolean loaded = false;
+                try {
+                    network.load(done -> SwingUtilities.invokeLater(() ->
+                            loadProgress.setValue((int) (done
+                                    * loadProgress.getMaximum()))));
+                    //The box sets the precision either way, a float network
+                    //is widened back to doubles when it is not checked
+                    network.setSinglePrecision(single);
+                    loaded = true;
+                } catch (IOException | RuntimeException ex) {
+                    //A bad file can fail with a parse error as well
+                    System.err.println(ex);
+                } finally {
+                    //Always give the button back and take the bar away
+                    boolean show = loaded;
+                    SwingUtilities.invokeLater(() -> {
+                        mPanel.remove(loadProgress);
+                        loadNet.setEnabled(true);
+                        if (show) {
+                            loadedNetwork = network;
+                            loadedNetworkMenu();
+                        }
+                        menu.repaint();
+                    });
+                }
+            }, "load").start();
         }
 
         /**
@@ -839,6 +964,20 @@ public final class NeuralNetGUI {
             networkTrainer = new Trainer(loadedNetwork, trainFrames,
                     keyPressed, timeTrained, Integer.parseInt(updates.getText()),
                     Double.parseDouble(learnRate.getText()));
+            networkTrainer.setBatchSize(Integer.parseInt(
+                    batchSize.getText()));
+            if (recordSamples.isSelected()) {
+                networkTrainer.setRecording(new File("datasets/"
+                        + loadedNetwork.getNetName() + ".nnds"));
+            }
+            //One worker per thread of the pool, changing the weights with
+            //no locks
+            if (lockFree.isSelected()) {
+                networkTrainer.setHogwild(Parallel.getPool().getParallelism(),
+                        false);
+            }
+            Network.setFastSigmoid(fastSigmoid.isSelected());
+            networkTrainer.setAsyncCapture(asyncCapture.isSelected());
             networkTrainer.start();
 
             tPanel.removeAll();
@@ -862,6 +1001,9 @@ public final class NeuralNetGUI {
                     keyPressed, timeTrained, Integer.parseInt(updates.getText()),
                     Double.parseDouble(learnRate.getText()));
             networkTrainer.setMode(1);
+            networkTrainer.setQuantized(quantizedPlay.isSelected());
+            Network.setFastSigmoid(fastSigmoid.isSelected());
+            networkTrainer.setAsyncCapture(asyncCapture.isSelected());
             networkTrainer.start();
 
             tPanel.removeAll();
@@ -944,6 +1086,11 @@ public final class NeuralNetGUI {
                     loadedNetwork.setOutputs(outputNeurons);
                     loadedNetwork.setNetType(networkTypes.getSelection()
                             .getActionCommand());
+                    loadedNetwork.setSinglePrecision(
+                            singlePrecision.isSelected());
+                    loadedNetwork.setActivation((Activation) activationList
+                            .getSelectedItem());
+                    loadedNetwork.setSoftmax(softmaxOutputs.isSelected());
 
                     int resW = Integer.parseInt(resWidth.getText());
                     int resH = Integer.parseInt(resHeight.getText());
@@ -1004,7 +1151,9 @@ public final class NeuralNetGUI {
             for (int i = 0; i < resH; i++) {
                 //Prints all neurons in the layer to the screen
                 for (int j = 0; j < resW; j++) {
-                    int color = (int) (currentLayer.getNeuronValue(n) * 255);
+                    //Values of ReLU and tanh layers can be past 0 to 1
+                    int color = (int) Math.max(0, Math.min(255,
+                            currentLayer.getNeuronValue(n) * 255));
 
                     g.setColor(new Color(color, color, color));
                     g.fillRect(j * ((brainMap.getWidth() - 6) / resW),
@@ -48,6 +48,15 @@ final class ONeuron {
         bias = b;
     }
 
+    /**
+     * Makes an output neuron with the same key and bias.
+     *
+     * @return the copy
+     */
+    protected ONeuron copy() {
+        return new ONeuron(key, bias);
+    }
+
     /**
      * Sets the key for this output neuron.
      *
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a network for a number of epochs over a dataset recorded by
+ * DatasetRecorder, without capturing the screen.
+ *
+ * Each epoch goes through the samples in a new order, shuffled with a seed
+ * made from the epoch, so a run can be repeated exactly. The samples are
+ * read from the memory mapped file a chunk at a time, and the next chunk is
+ * read on a prefetch thread while the network trains on the last one, so
+ * the reads overlap the training. Chunks keep the inputs as the bytes they
+ * are stored as, and each sample is turned into doubles only as it is added
+ * to the batch, so two chunks take CHUNK * inputs * 2 bytes.
+ *
+ * Run with: network dataset [epochs] [batch size] [learning rate] [seed]
+ * [epochs between checkpoints]
+ *
+ * @author Nick Vocaire
+ */
+final class OfflineTrainer {
+
+    /**
+     * Samples read at a time.
+     */
+    protected static final int CHUNK = 4096;
+
+    /**
+     * Network trained.
+     */
+    private final Network net;
+
+    /**
+     * Samples trained on.
+     */
+    private final Dataset data;
+
+    /**
+     * Order of the samples in the current epoch.
+     */
+    private final int[] order;
+
+    /**
+     * Input values of the samples of the chunk trained on, and the one read,
+     * one unsigned byte per input and one sample after another.
+     */
+    private final byte[][] chunkInputs;
+
+    /**
+     * Input values of the sample being added to the batch.
+     */
+    private final double[] sampleInputs;
+
+    /**
+     * Output neuron of the key of each sample of the two chunks.
+     */
+    private final int[][] chunkKeys;
+
+    /**
+     * Reward of each sample of the two chunks.
+     */
+    private final double[][] chunkRewards;
+
+    /**
+     * batchSize - samples in each change of the weights. checkpoint - epochs
+     * between saves, 0 to only save at the end.
+     */
+    private int batchSize = 32, checkpoint;
+
+    /**
+     * learningRate - learning rate. loss - average loss of the last epoch.
+     */
+    private double learningRate = 0.1, loss;
+
+    /**
+     * Seed the order of each epoch is made from.
+     */
+    private long seed;
+
+    /**
+     * Constructor for training a network on a dataset.
+     *
+     * @param n the network
+     * @param d the dataset
+     */
+    protected OfflineTrainer(final Network n, final Dataset d) {
+        net = n;
+        data = d;
+        order = new int[d.getSize()];
+
+        int size = Math.min(CHUNK, Math.max(1, d.getSize()));
+        chunkInputs = new byte[2][size * n.getInputSize()];
+        sampleInputs = new double[n.getInputSize()];
+        chunkKeys = new int[2][size];
+        chunkRewards = new double[2][size];
+    }
+
+    /**
+     * Trains a network saved in the networks folder on a dataset file.
+     *
+     * @param args network name, dataset file, epochs, batch size, learning
+     * rate, seed and epochs between checkpoints
+     * @throws IOException if the network or dataset can not be read or the
+     * network can not be saved
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: OfflineTrainer network dataset [epochs]"
+                    + " [batch size] [learning rate] [seed] [checkpoint]");
+            return;
+        }
+
+        Network net = new Network(args[0]);
+        net.load();
+        Dataset data = new Dataset(new File(args[1]), net);
+
+        OfflineTrainer trainer = new OfflineTrainer(net, data);
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        if (args.length > 3) {
+            trainer.setBatchSize(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            trainer.setLearningRate(Double.parseDouble(args[4]));
+        }
+        if (args.length > 5) {
+            trainer.setSeed(Long.parseLong(args[5]));
+        }
+        if (args.length > 6) {
+            trainer.setCheckpoint(Integer.parseInt(args[6]));
+        }
+
+        System.out.println(data.getSize() + " samples, " + net.getInputSize()
+                + " inputs, " + Parallel.getPool().getParallelism()
+                + " threads");
+        trainer.train(epochs);
+    }
+
+    /**
+     * Sets the samples in each change of the weights.
+     *
+     * @param b batch size
+     */
+    protected void setBatchSize(final int b) {
+        batchSize = Math.max(1, b);
+    }
+
+    /**
+     * Sets the learning rate.
+     *
+     * @param rate learning rate
+     */
+    protected void setLearningRate(final double rate) {
+        learningRate = rate;
+    }
+
+    /**
+     * Sets the seed the order of each epoch is made from.
+     *
+     * @param s seed
+     */
+    protected void setSeed(final long s) {
+        seed = s;
+    }
+
+    /**
+     * Sets the epochs between saves of the network.
+     *
+     * @param epochs epochs between saves, 0 to only save at the end
+     */
+    protected void setCheckpoint(final int epochs) {
+        checkpoint = Math.max(0, epochs);
+    }
+
+    /**
+     * Returns the average loss of the samples in the last epoch, before the
+     * weights were changed by their batch.
+     *
+     * @return average loss
+     */
+    protected double getLoss() {
+        return loss;
+    }
+
+    /**
+     * Trains the network for a number of epochs, printing the loss and speed
+     * of each and saving the network every checkpoint and at the end.
+     *
+     * @param epochs epochs to train for
+     * @throws IOException if the network can not be saved
+     */
+    protected void train(final int epochs) throws IOException {
+        ParallelBatch batch = new ParallelBatch(net, batchSize,
+                ParallelBatch.SHARDS);
+        ExecutorService prefetch = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "dataset");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                long start = System.nanoTime();
+                shuffle(epoch);
+                trainEpoch(batch, prefetch);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("Epoch %d: loss %.5f, %.0f samples/s%n",
+                        epoch + 1, loss, order.length / seconds);
+
+                if (checkpoint > 0 && (epoch + 1) % checkpoint == 0
+                        && epoch + 1 < epochs) {
+                    net.save();
+                }
+            }
+        } finally {
+            prefetch.shutdown();
+        }
+        net.save();
+    }
+
+    /**
+     * Puts the samples in a new order for an epoch with a Fisher-Yates
+     * shuffle.
+     *
+     * @param epoch the epoch
+     */
+    private void shuffle(final int epoch) {
+        Random random = new Random(seed + epoch);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+    }
+
+    /**
+     * Trains on every sample once in the current order, reading each chunk
+     * while the one before it is trained on.
+     *
+     * @param batch the batch the samples are added to
+     * @param prefetch thread the next chunk is read on
+     */
+    private void trainEpoch(final ParallelBatch batch,
+            final ExecutorService prefetch) {
+        double total = 0;
+        int current = 0;
+        int inputs = sampleInputs.length;
+        read(current, 0);
+
+        for (int first = 0; first < order.length; first += CHUNK) {
+            int next = first + CHUNK;
+            int nextChunk = 1 - current;
+            Future<?> reading = null;
+            if (next < order.length) {
+                reading = prefetch.submit(() -> read(nextChunk, next));
+            }
+
+            int count = Math.min(CHUNK, order.length - first);
+            byte[] bytes = chunkInputs[current];
+            for (int s = 0; s < count; s++) {
+                for (int i = 0; i < inputs; i++) {
+                    sampleInputs[i] = bytes[s * inputs + i] & 0xFF;
+                }
+                if (batch.add(sampleInputs, chunkKeys[current][s],
+                        chunkRewards[current][s])) {
+                    batch.train(learningRate);
+                    total += batch.getLoss();
+                }
+            }
+
+            if (reading != null) {
+                try {
+                    reading.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Chunk not read",
+                            ex.getCause());
+                }
+            }
+            current = nextChunk;
+        }
+
+        //Trains on the samples left over that did not fill a batch
+        if (batch.getSize() > 0) {
+            batch.train(learningRate);
+            total += batch.getLoss();
+        }
+        loss = order.length > 0 ? total / order.length : 0;
+    }
+
+    /**
+     * Reads the samples of a chunk of the current order.
+     *
+     * @param chunk the chunk arrays to read into
+     * @param first index in the order of the chunk's first sample
+     */
+    private void read(final int chunk, final int first) {
+        int count = Math.min(CHUNK, order.length - first);
+        for (int s = 0; s < count; s++) {
+            int index = order[first + s];
+            data.readInputs(index, chunkInputs[chunk],
+                    s * sampleInputs.length);
+            chunkKeys[chunk][s] = data.readKey(index);
+            chunkRewards[chunk][s] = data.readReward(index);
+        }
+    }
+}
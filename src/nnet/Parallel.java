@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared pool for splitting the neurons of large layers across cores.
+ *
+ * @author Nick Vocaire
+ */
+final class Parallel {
+
+    /**
+     * Default amount of work (roughly multiply-adds) below which a range is
+     * done on the calling thread, since handing it to the pool costs more
+     * than it saves.
+     */
+    protected static final long DEFAULT_THRESHOLD = 1 << 16;
+
+    /**
+     * Pool shared by every network, one thread per core unless the
+     * nnet.threads system property says otherwise.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(1, Integer.getInteger("nnet.threads",
+                    Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Amount of work below which a range is done on the calling thread.
+     */
+    private static volatile long threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * Work done on part of a range.
+     */
+    interface Range {
+
+        /**
+         * Does the work for items from (inclusive) to (exclusive).
+         *
+         * @param from first item
+         * @param to item after the last
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Thread that already runs alongside others like it, so the ranges it
+     * runs are never split across the pool.
+     */
+    static class Worker extends Thread {
+    }
+
+    /**
+     * Not made.
+     */
+    private Parallel() {
+    }
+
+    /**
+     * Sets the amount of work below which a range is done on the calling
+     * thread. Setting it to Long.MAX_VALUE turns splitting off.
+     *
+     * @param t the threshold
+     */
+    protected static void setThreshold(final long t) {
+        threshold = t;
+    }
+
+    /**
+     * Returns the amount of work below which a range is done on the calling
+     * thread.
+     *
+     * @return the threshold
+     */
+    protected static long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the shared pool.
+     *
+     * @return the pool
+     */
+    protected static ForkJoinPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * Runs the work for every item in a range, split across the pool if the
+     * range is large enough. Each item must only change memory no other item
+     * touches.
+     *
+     * @param start first item
+     * @param end item after the last
+     * @param cost work needed for one item
+     * @param range the work to do
+     */
+    protected static void forRange(final int start, final int end,
+            final long cost, final Range range) {
+        long work = (end - start) * cost;
+
+        if (work < threshold || POOL.getParallelism() == 1
+                || Thread.currentThread() instanceof Worker) {
+            range.run(start, end);
+            return;
+        }
+
+        //Split into a few pieces per thread so uneven pieces even out, but
+        //never below the threshold
+        long pieces = Math.min(POOL.getParallelism(), work / threshold);
+        int grain = (int) Math.max(1, (end - start) / Math.max(1, pieces));
+        Split task = new Split(start, end, grain, range);
+
+        if (ForkJoinTask.getPool() == POOL) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    /**
+     * Task that halves its range until it is small enough to run.
+     */
+    private static final class Split extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * from - first item.
+         * to - item after the last.
+         * grain - most items run without splitting.
+         */
+        private final int from, to, grain;
+
+        /**
+         * The work to do.
+         */
+        private final Range range;
+
+        /**
+         * Constructor for making a task for part of a range.
+         *
+         * @param f first item
+         * @param t item after the last
+         * @param g most items run without splitting
+         * @param r the work to do
+         */
+        Split(final int f, final int t, final int g, final Range r) {
+            from = f;
+            to = t;
+            grain = g;
+            range = r;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                range.run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Split(from, middle, grain, range),
+                        new Split(middle, to, grain, range));
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * Batch of samples split into shards that are propagated on different
+ * threads at the same time.
+ *
+ * Each shard is a MiniBatch. The shards are run in rounds of one per thread,
+ * each into one of a few shared gradients, and after every round their
+ * gradients are added to the total in shard order. The total is therefore
+ * always the same sum in the same order whatever the number of threads or
+ * which finished first, so two runs with the same samples and the same
+ * number of shards give the same network, bit for bit. The number of shards
+ * is a fixed count, SHARDS, rather than the number of cores, so the weights
+ * are also the same on every machine.
+ *
+ * Only one gradient per thread plus the total are kept, never more than
+ * SHARDS + 1, so memory does not grow with the number of cores.
+ *
+ * @author Nick Vocaire
+ */
+final class ParallelBatch {
+
+    /**
+     * Number of shards a batch is split into when no other count is asked
+     * for. Also the most threads one batch can use.
+     */
+    protected static final int SHARDS = 8;
+
+    /**
+     * Network the batch trains.
+     */
+    private final Network net;
+
+    /**
+     * Shards of the batch, each filled in turn.
+     */
+    private final MiniBatch[] shards;
+
+    /**
+     * total - sum of the gradients of every shard.
+     * round - gradient of each shard in a round, one per thread.
+     */
+    private final Gradient total;
+    private final Gradient[] round;
+
+    /**
+     * capacity - most samples the batch holds.
+     * shardCapacity - most samples each shard holds.
+     * count - samples in the batch.
+     */
+    private final int capacity, shardCapacity;
+    private int count;
+
+    /**
+     * Total loss of the samples last trained on.
+     */
+    private double loss;
+
+    /**
+     * Constructor for making an empty batch split into shards.
+     *
+     * @param n the network to train
+     * @param c most samples the batch holds
+     * @param s number of shards, no more than the samples
+     */
+    protected ParallelBatch(final Network n, final int c, final int s) {
+        net = n;
+        capacity = c;
+        int shardCount = Math.max(1, Math.min(s, c));
+        shardCapacity = (c + shardCount - 1) / shardCount;
+        shards = new MiniBatch[(c + shardCapacity - 1) / shardCapacity];
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new MiniBatch(n, Math.min(shardCapacity,
+                    c - i * shardCapacity));
+        }
+        total = new Gradient(n);
+        round = new Gradient[Math.min(shards.length,
+                Parallel.getPool().getParallelism())];
+
+        for (int i = 0; i < round.length; i++) {
+            round[i] = new Gradient(n);
+        }
+    }
+
+    /**
+     * Adds a sample to the batch.
+     *
+     * @param in input values of the sample
+     * @param key output neuron of the key pressed, -1 if none
+     * @param reward reward of the sample
+     * @return true if the batch is now full
+     */
+    protected boolean add(final double[] in, final int key,
+            final double reward) {
+        shards[count / shardCapacity].add(in, key, reward);
+        count++;
+        return isFull();
+    }
+
+    /**
+     * Returns whether the batch is full.
+     *
+     * @return true if full
+     */
+    protected boolean isFull() {
+        return count == capacity;
+    }
+
+    /**
+     * Returns how many samples are in the batch.
+     *
+     * @return number of samples
+     */
+    protected int getSize() {
+        return count;
+    }
+
+    /**
+     * Returns the most samples the batch holds.
+     *
+     * @return capacity
+     */
+    protected int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the total loss of the samples last trained on, before the
+     * weights were changed.
+     *
+     * @return the loss
+     */
+    protected double getLoss() {
+        return loss;
+    }
+
+    /**
+     * Returns the number of shards the batch is split into.
+     *
+     * @return number of shards
+     */
+    protected int getShards() {
+        return shards.length;
+    }
+
+    /**
+     * Trains the network on every sample in the batch with one change to
+     * the weights, then empties the batch. The changes are averaged over the
+     * batch.
+     *
+     * @param learningRate learning rate
+     */
+    protected void train(final double learningRate) {
+        if (count == 0) {
+            return;
+        }
+        int used = (count + shardCapacity - 1) / shardCapacity;
+
+        long cost = (long) shardCapacity * net.getInputSize()
+                * net.getLayer(0).getSize();
+        total.clear();
+        loss = 0;
+
+        for (int first = 0; first < used; first += round.length) {
+            int start = first;
+            int size = Math.min(round.length, used - first);
+
+            //Each shard in the round finds its gradient on its own thread
+            Parallel.forRange(0, size, cost, (from, to) -> {
+                for (int r = from; r < to; r++) {
+                    shards[start + r].computeGradient(round[r]);
+                }
+            });
+
+            //Add them up in shard order so the sum is always the same
+            for (int r = 0; r < size; r++) {
+                total.add(round[r]);
+                loss += shards[start + r].getLoss();
+            }
+        }
+        total.apply(net, learningRate / count);
+
+        for (MiniBatch shard : shards) {
+            shard.clear();
+        }
+        count = 0;
+    }
+}
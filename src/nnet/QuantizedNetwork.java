@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Copy of a trained network with 8 bit weights, for playing only.
+ *
+ * Each weight is stored as a byte from -127 to 127 times a scale kept for
+ * every neuron it goes to, so a neuron's largest weight becomes 127. Input
+ * and sigmoid values are stored as bytes from 0 to 255 times 1/255, which
+ * the gray input values already are and sigmoid values fit well. Other
+ * layers store bytes from -127 to 127 times a scale, 1/127 for tanh and for
+ * ReLU layers the largest value of the frame over 127. A weighted sum is
+ * then a sum of integer products in an int, and only turned back into a
+ * double to add the bias and squish it. The weights take an eighth of the
+ * memory of doubles, so much less is read every frame.
+ *
+ * The weights are copied when the copy is made, later training does not
+ * change it.
+ *
+ * A copy can be exported to the network's .q8 file and read back with the
+ * network it was made from, which still supplies the inputs, the
+ * activations and the outputs. The file is little-endian: MAGIC, VERSION,
+ * the time the network had trained, the number of weight blocks and the
+ * rows and columns of each, then for each block its bytes, the scale of
+ * each column and the bias of each column, ending with the CRC32 of
+ * everything before it. Exporting prints how far the copy's outputs are
+ * from the network's on a fixed set of samples, see getSamples.
+ *
+ * Run with a network name, and optionally a dataset recorded for it, to
+ * export the network's copy.
+ *
+ * @author Nick Vocaire
+ */
+final class QuantizedNetwork {
+
+    /**
+     * Largest magnitude of a stored weight.
+     */
+    private static final int WEIGHT_LEVELS = 127;
+
+    /**
+     * Largest stored neuron value from 0 to 255.
+     */
+    private static final int VALUE_LEVELS = 255;
+
+    /**
+     * Largest magnitude of a stored neuron value from -127 to 127.
+     */
+    private static final int SIGNED_LEVELS = 127;
+
+    /**
+     * First int of an exported copy, "NNQ8" in ASCII.
+     */
+    protected static final int MAGIC = 0x38514E4E;
+
+    /**
+     * Version of the exported file written.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Extension of an exported copy.
+     */
+    protected static final String EXTENSION = ".q8";
+
+    /**
+     * Samples the deviation is found on, see getSamples.
+     */
+    protected static final int SAMPLES = 64;
+
+    /**
+     * Seed of the random samples, so every export is checked on the same.
+     */
+    private static final long SEED = 22333;
+
+    /**
+     * Network the copy was made from, which holds the inputs and outputs.
+     */
+    private final Network net;
+
+    /**
+     * Weights into each layer, then into the outputs. Unlike Matrix there is
+     * one row per neuron receiving, so each weighted sum reads one row.
+     */
+    private final byte[][] weights;
+
+    /**
+     * Scale of the weights into each neuron of each layer, then of each
+     * output.
+     */
+    private final double[][] scales;
+
+    /**
+     * Biases of each layer, then of the outputs.
+     */
+    private final double[][] biases;
+
+    /**
+     * Values of the input neurons, then of each layer.
+     */
+    private final byte[][] values;
+
+    /**
+     * Scale of the values of the input neurons, then of each layer.
+     */
+    private final double[] valueScales;
+
+    /**
+     * True for values from 0 to 255, false for values from -127 to 127.
+     */
+    private final boolean[] unsigned;
+
+    /**
+     * Activation of each layer.
+     */
+    private final Activation[] activations;
+
+    /**
+     * Values of each layer before they are stored as bytes.
+     */
+    private final double[][] exact;
+
+    /**
+     * Values of the outputs while they are squished.
+     */
+    private final double[] outputs;
+
+    /**
+     * Constructor for making an 8 bit copy of a network.
+     *
+     * @param n the network to copy
+     */
+    protected QuantizedNetwork(final Network n) {
+        this(n, null);
+    }
+
+    /**
+     * Constructor for making an 8 bit copy of a network, or reading one
+     * exported from it.
+     *
+     * @param n the network to copy
+     * @param in the blocks of an exported copy, already checked against the
+     * network, or null to copy the network
+     */
+    private QuantizedNetwork(final Network n, final ByteBuffer in) {
+        net = n;
+        int layers = n.getLayerSize();
+        weights = new byte[layers + 1][];
+        scales = new double[layers + 1][];
+        biases = new double[layers + 1][];
+        values = new byte[layers + 1][];
+        valueScales = new double[layers + 1];
+        unsigned = new boolean[layers + 1];
+        activations = new Activation[layers];
+        exact = new double[layers][];
+
+        values[0] = new byte[n.getInputSize()];
+        valueScales[0] = 1.0 / VALUE_LEVELS;
+        unsigned[0] = true;
+        Matrix inputWeights = n.getInputWeights();
+        if (in == null) {
+            quantize(0, inputWeights);
+        } else {
+            getBlock(in, 0, inputWeights.getRows(),
+                    inputWeights.getColumns());
+        }
+
+        for (int l = 0; l < layers; l++) {
+            Layer layer = n.getLayer(l);
+            values[l + 1] = new byte[layer.getSize()];
+            exact[l] = new double[layer.getSize()];
+            activations[l] = layer.getActivation();
+            unsigned[l + 1] = activations[l] == Activation.SIGMOID;
+            valueScales[l + 1] = unsigned[l + 1] ? 1.0 / VALUE_LEVELS
+                    : 1.0 / SIGNED_LEVELS;
+            if (in == null) {
+                biases[l] = layer.getBiases().clone();
+                quantize(l + 1, layer.getWeights());
+            } else {
+                getBlock(in, l + 1, layer.getWeights().getRows(),
+                        layer.getWeights().getColumns());
+            }
+        }
+
+        outputs = new double[n.getOutputSize()];
+        if (in == null) {
+            biases[layers] = new double[n.getOutputSize()];
+            for (int o = 0; o < biases[layers].length; o++) {
+                biases[layers][o] = n.getOutputNeuron(o).getBias();
+            }
+        }
+    }
+
+    /**
+     * Turns a weight matrix into bytes, one row per neuron receiving, with a
+     * scale for each.
+     *
+     * @param stage index of the weights
+     * @param m the weights
+     */
+    private void quantize(final int stage, final Matrix m) {
+        int rows = m.getRows(), columns = m.getColumns();
+        weights[stage] = new byte[rows * columns];
+        scales[stage] = new double[columns];
+
+        for (int c = 0; c < columns; c++) {
+            double largest = 0;
+            for (int r = 0; r < rows; r++) {
+                largest = Math.max(largest, Math.abs(m.get(r, c)));
+            }
+
+            //A neuron with no weights keeps a scale that never divides by 0
+            double scale = largest > 0 ? largest / WEIGHT_LEVELS : 1;
+            scales[stage][c] = scale;
+
+            for (int r = 0; r < rows; r++) {
+                weights[stage][c * rows + r] = (byte) Math.round(
+                        m.get(r, c) / scale);
+            }
+        }
+    }
+
+    /**
+     * Reads the weights, scales and biases of one block of an exported copy.
+     *
+     * @param in the file, at the start of the block
+     * @param stage index of the weights
+     * @param rows neurons sending
+     * @param columns neurons receiving
+     */
+    private void getBlock(final ByteBuffer in, final int stage,
+            final int rows, final int columns) {
+        weights[stage] = new byte[rows * columns];
+        scales[stage] = new double[columns];
+        biases[stage] = new double[columns];
+        in.get(weights[stage]);
+        in.asDoubleBuffer().get(scales[stage]);
+        in.position(in.position() + columns * Double.BYTES);
+        in.asDoubleBuffer().get(biases[stage]);
+        in.position(in.position() + columns * Double.BYTES);
+    }
+
+    /**
+     * Exports the copy to a file, replacing what was there. It is written
+     * to a temporary file that is renamed over the file, like Network.save.
+     *
+     * @param file the file
+     * @throws IOException if the file can not be written
+     */
+    protected void save(final File file) throws IOException {
+        int size = 4 * Integer.BYTES + Long.BYTES;
+        for (int stage = 0; stage < weights.length; stage++) {
+            size += 2 * Integer.BYTES + weights[stage].length
+                    + 2 * scales[stage].length * Double.BYTES;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putLong(net.getNetTrainTime());
+        out.putInt(weights.length);
+        for (int stage = 0; stage < weights.length; stage++) {
+            int columns = scales[stage].length;
+            out.putInt(weights[stage].length / columns).putInt(columns);
+        }
+        for (int stage = 0; stage < weights.length; stage++) {
+            out.put(weights[stage]);
+            for (double scale : scales[stage]) {
+                out.putDouble(scale);
+            }
+            for (double bias : biases[stage]) {
+                out.putDouble(bias);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a copy exported from a network, checking that it was exported
+     * from a network of the same shape.
+     *
+     * @param n the network the copy was made from
+     * @param file the file
+     * @return the copy
+     * @throws IOException if the file can not be read, is not an exported
+     * copy of the network or is damaged
+     */
+    protected static QuantizedNetwork read(final Network n, final File file)
+            throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = bytes.length - Integer.BYTES;
+        if (end < 2 * Integer.BYTES || in.getInt() != MAGIC) {
+            throw new IOException(file + " is not an 8 bit network");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " is 8 bit network version "
+                    + version);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, end);
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException(file + " is damaged, its checksum does"
+                    + " not match");
+        }
+
+        in.getLong();
+        if (in.getInt() != n.getLayerSize() + 1) {
+            throw new IOException(file + " was not made from "
+                    + n.getNetName());
+        }
+        for (int stage = 0; stage <= n.getLayerSize(); stage++) {
+            Matrix m = stage == 0 ? n.getInputWeights()
+                    : n.getLayer(stage - 1).getWeights();
+            if (in.getInt() != m.getRows() || in.getInt() != m.getColumns()) {
+                throw new IOException(file + " was not made from "
+                        + n.getNetName());
+            }
+        }
+        return new QuantizedNetwork(n, in);
+    }
+
+    /**
+     * Returns the exported copy of a network in the networks folder.
+     *
+     * @param name name of the network
+     * @return the file, which may not exist
+     */
+    protected static File getFile(final String name) {
+        return new File("networks/" + name + EXTENSION);
+    }
+
+    /**
+     * Returns the fixed set of samples the deviation is found on when a copy
+     * is made or exported: SAMPLES frames of random gray values from the
+     * same seed, so every copy of a network is checked on the same frames.
+     *
+     * @param n the network
+     * @return input values of each sample, from 0 to 255
+     */
+    protected static double[][] getSamples(final Network n) {
+        Random random = new Random(SEED);
+        double[][] samples = new double[SAMPLES][n.getInputSize()];
+
+        for (double[] sample : samples) {
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = random.nextInt(VALUE_LEVELS + 1);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Returns a fixed set of samples from a dataset, SAMPLES of them spread
+     * evenly through it.
+     *
+     * @param n the network
+     * @param data the dataset
+     * @return input values of each sample, from 0 to 255
+     */
+    protected static double[][] getSamples(final Network n,
+            final Dataset data) {
+        int count = Math.min(SAMPLES, data.getSize());
+        double[][] samples = new double[count][n.getInputSize()];
+        byte[] bytes = new byte[n.getInputSize()];
+
+        for (int s = 0; s < count; s++) {
+            data.readInputs((int) ((long) s * data.getSize() / count), bytes,
+                    0);
+            for (int i = 0; i < bytes.length; i++) {
+                samples[s][i] = bytes[i] & 0xFF;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Prints how far the outputs of a copy are from its network's on a set
+     * of samples. Changes the network's input and output values.
+     *
+     * @param samples input values of each sample, from 0 to 255
+     * @return the largest and the average difference of an output value
+     */
+    protected double[] printDeviation(final double[][] samples) {
+        double[] deviation = deviation(samples);
+        System.out.printf("8 bit outputs over %d fixed samples: largest "
+                + "difference %.6f, average %.6f%n", samples.length,
+                deviation[0], deviation[1]);
+        return deviation;
+    }
+
+    /**
+     * Exports the 8 bit copy of a network to its .q8 file, printing how far
+     * its outputs are on a dataset recorded for the network, or on the
+     * random samples of getSamples without one.
+     *
+     * @param args name of the network, then the dataset
+     * @throws IOException if the network or dataset can not be read or the
+     * copy can not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: QuantizedNetwork network [dataset]");
+            return;
+        }
+
+        Network net = new Network(args[0]);
+        net.load();
+        double[][] samples;
+        if (args.length > 1) {
+            samples = getSamples(net, new Dataset(new File(args[1]), net));
+        } else {
+            samples = getSamples(net);
+        }
+
+        QuantizedNetwork copy = new QuantizedNetwork(net);
+        double[] deviation = copy.printDeviation(samples);
+        File file = getFile(args[0]);
+        copy.save(file);
+
+        //Checks the file gives back the same copy
+        if (!Arrays.equals(deviation, read(net, file).deviation(samples))) {
+            throw new IOException(file + " does not read back the same");
+        }
+        System.out.println(file + ": " + file.length() + " bytes, weights "
+                + copy.getWeightBytes() + " bytes");
+    }
+
+    /**
+     * Propagates the network's input values forward through the copy and
+     * sets the network's output neuron values, so play() can be called after
+     * it like after Network.calculate().
+     */
+    protected void calculate() {
+        double[] inputs = net.getInputValues();
+        byte[] in = values[0];
+
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (byte) Math.max(0, Math.min(VALUE_LEVELS,
+                    (int) Math.round(inputs[i])));
+        }
+
+        int last = weights.length - 1;
+        for (int stage = 0; stage < last; stage++) {
+            forward(stage, values[stage + 1]);
+        }
+
+        double[] outputBiases = biases[last];
+        byte[] from = values[last];
+        for (int o = 0; o < outputBiases.length; o++) {
+            outputs[o] = sum(last, o, from) + outputBiases[o];
+        }
+        net.activateOutputs(outputs, 0);
+        for (int o = 0; o < outputs.length; o++) {
+            net.getOutputNeuron(o).setValue(outputs[o]);
+        }
+    }
+
+    /**
+     * Finds the values of a layer from the values of the one before it.
+     *
+     * @param stage index of the weights into the layer
+     * @param to array to store the layer's values in
+     */
+    private void forward(final int stage, final byte[] to) {
+        byte[] from = values[stage];
+        double[] layerValues = exact[stage];
+        Activation activation = activations[stage];
+
+        Parallel.forRange(0, to.length, from.length, (first, end) -> {
+            for (int n = first; n < end; n++) {
+                layerValues[n] = activation.apply(sum(stage, n, from)
+                        + biases[stage][n]);
+            }
+        });
+
+        //ReLU values have no top, so scale this frame's largest to 127
+        if (activation == Activation.RELU
+                || activation == Activation.LEAKY_RELU) {
+            double largest = 0;
+            for (double value : layerValues) {
+                largest = Math.max(largest, Math.abs(value));
+            }
+            valueScales[stage + 1] = largest > 0 ? largest / SIGNED_LEVELS
+                    : 1;
+        }
+
+        double toScale = 1 / valueScales[stage + 1];
+        for (int n = 0; n < to.length; n++) {
+            to[n] = (byte) Math.round(layerValues[n] * toScale);
+        }
+    }
+
+    /**
+     * Returns the weighted sum into one neuron as a double.
+     *
+     * @param stage index of the weights into the neuron
+     * @param n the neuron
+     * @param from values of the neurons before it
+     * @return the weighted sum
+     */
+    private double sum(final int stage, final int n, final byte[] from) {
+        byte[] w = weights[stage];
+        int offset = n * from.length;
+        int total = 0;
+
+        //Fits in an int, 127 * 255 * 66000 inputs is under 2^31
+        if (unsigned[stage]) {
+            for (int i = 0; i < from.length; i++) {
+                total += w[offset + i] * (from[i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < from.length; i++) {
+                total += w[offset + i] * from[i];
+            }
+        }
+        return total * scales[stage][n] * valueScales[stage];
+    }
+
+    /**
+     * Runs a set of inputs through both the network and the copy and
+     * compares the output values. Changes the network's input and output
+     * values.
+     *
+     * @param samples input values of each sample, from 0 to 255
+     * @return the largest and the average difference of an output value
+     */
+    protected double[] deviation(final double[][] samples) {
+        double[] exact = new double[net.getOutputSize()];
+        double largest = 0, total = 0;
+
+        for (double[] sample : samples) {
+            System.arraycopy(sample, 0, net.getInputValues(), 0,
+                    sample.length);
+            net.calculate();
+            for (int o = 0; o < exact.length; o++) {
+                exact[o] = net.getOutputNeuron(o).getValue();
+            }
+
+            calculate();
+            for (int o = 0; o < exact.length; o++) {
+                double difference = Math.abs(exact[o]
+                        - net.getOutputNeuron(o).getValue());
+                largest = Math.max(largest, difference);
+                total += difference;
+            }
+        }
+        return new double[]{largest,
+            total / Math.max(1, samples.length * exact.length)};
+    }
+
+    /**
+     * Returns the bytes taken by the weights of the copy.
+     *
+     * @return size of the weights in bytes
+     */
+    protected long getWeightBytes() {
+        long bytes = 0;
+        for (byte[] w : weights) {
+            bytes += w.length;
+        }
+        return bytes;
+    }
+}
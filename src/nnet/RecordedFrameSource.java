@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Frames replayed from image files, over and over in order.
+ *
+ * A directory plays every image in it by file name, a file plays just that
+ * image. Only the file names are kept, each frame is read when it is played
+ * and turned into RGB ints in an image reused for the next frame, so a long
+ * recording takes no more memory than one frame. A frame the size of the
+ * area is used as it is, a larger one is taken to be the whole screen and
+ * the area is cut out of it.
+ *
+ * The key pressed with each frame is read from KEYS_FILE next to the
+ * images, one "image file name,key name" line per frame, so a trainer can
+ * learn from the frames with no keyboard. Frames it leaves out were shown
+ * with no key pressed. Without the file the keys come from the keyboard.
+ *
+ * @author Nick Vocaire
+ */
+final class RecordedFrameSource implements FrameSource {
+
+    /**
+     * Name of the file holding the key pressed with each frame.
+     */
+    protected static final String KEYS_FILE = "keys.csv";
+
+    /**
+     * Image files of the frames, in the order they are played.
+     */
+    private final File[] files;
+
+    /**
+     * Name of the key pressed with each frame, null if not known.
+     */
+    private final String[] keys;
+
+    /**
+     * width - width of the first frame. height - height of the first frame.
+     */
+    private final int width, height;
+
+    /**
+     * Last frame read as RGB ints, reused for the next one of its size.
+     */
+    private BufferedImage frame;
+
+    /**
+     * next - index of the next frame played. last - index of the last frame
+     * played, -1 before the first. read - index of the frame held in frame,
+     * -1 if none.
+     */
+    private int next, last = -1, read = -1;
+
+    /**
+     * Constructor for replaying recorded frames. Only looks at the start of
+     * each file to find the images, and reads the first one to check it.
+     *
+     * @param path a directory of images, or one image
+     * @throws IOException if a file or the keys can not be read or there
+     * are no images
+     */
+    protected RecordedFrameSource(final File path) throws IOException {
+        File[] all = path.isDirectory() ? path.listFiles()
+                : new File[]{path};
+        if (all == null) {
+            throw new IOException("Can not list " + path);
+        }
+        Arrays.sort(all);
+
+        File keysFile = new File(path.isDirectory() ? path
+                : path.getAbsoluteFile().getParentFile(), KEYS_FILE);
+        Map<String, String> keyOf = keysFile.isFile() ? readKeys(keysFile)
+                : null;
+
+        List<File> images = new ArrayList<>();
+        List<String> imageKeys = new ArrayList<>();
+        for (File file : all) {
+            //Files that are not images are skipped
+            if (file.isFile() && isImage(file)) {
+                images.add(file);
+                imageKeys.add(keyOf == null ? null
+                        : keyOf.getOrDefault(file.getName(), "NONE"));
+            }
+        }
+
+        if (images.isEmpty()) {
+            throw new IOException("No frames in " + path);
+        }
+        files = images.toArray(new File[images.size()]);
+        keys = imageKeys.toArray(new String[imageKeys.size()]);
+
+        BufferedImage first = read(0);
+        width = first.getWidth();
+        height = first.getHeight();
+    }
+
+    /**
+     * Returns whether a file is an image ImageIO can read, from its first
+     * bytes.
+     *
+     * @param file the file
+     * @return true if it is an image
+     * @throws IOException if the file can not be read
+     */
+    private static boolean isImage(final File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            return in != null && ImageIO.getImageReaders(in).hasNext();
+        }
+    }
+
+    /**
+     * Reads the key pressed with each frame from a keys file.
+     *
+     * @param file the keys file
+     * @return key name of each image file name
+     * @throws IOException if the file can not be read or a line has no key
+     */
+    private static Map<String, String> readKeys(final File file)
+            throws IOException {
+        Map<String, String> keyOf = new HashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) {
+                    throw new IOException("No key in line \"" + line
+                            + "\" of " + file);
+                }
+                keyOf.put(line.substring(0, comma).trim(),
+                        line.substring(comma + 1).trim());
+            }
+        }
+        return keyOf;
+    }
+
+    /**
+     * Reads a frame as RGB ints, into the image of the last frame if it is
+     * stored another way and the same size. A frame already held is not
+     * read again, so one image replays without reading.
+     *
+     * @param index index of the frame
+     * @return the frame
+     * @throws IOException if the frame can not be read
+     */
+    private BufferedImage read(final int index) throws IOException {
+        if (index == read) {
+            return frame;
+        }
+
+        BufferedImage image = ImageIO.read(files[index]);
+        if (image == null) {
+            throw new IOException(files[index] + " is not an image");
+        }
+
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            frame = image;
+        } else {
+            if (frame == null || frame.getWidth() != image.getWidth()
+                    || frame.getHeight() != image.getHeight()) {
+                frame = new BufferedImage(image.getWidth(),
+                        image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            }
+            //Cleared first so see-through pixels do not show the last frame
+            Graphics2D g = frame.createGraphics();
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        read = index;
+        return frame;
+    }
+
+    /**
+     * Returns the number of frames replayed.
+     *
+     * @return number of frames
+     */
+    protected int getFrameCount() {
+        return files.length;
+    }
+
+    /**
+     * Returns the width of the first frame.
+     *
+     * @return width in pixels
+     */
+    protected int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the first frame.
+     *
+     * @return height in pixels
+     */
+    protected int getHeight() {
+        return height;
+    }
+
+    @Override
+    public BufferedImage capture(final Rectangle area) {
+        BufferedImage image;
+        try {
+            image = read(next);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        last = next;
+        next = (next + 1) % files.length;
+
+        if (image.getWidth() == area.width
+                && image.getHeight() == area.height) {
+            return image;
+        }
+        return image.getSubimage(area.x, area.y, area.width, area.height);
+    }
+
+    @Override
+    public String getKeyPressed() {
+        return last < 0 ? null : keys[last];
+    }
+}
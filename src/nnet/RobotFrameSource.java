@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+
+/**
+ * Frames captured from the screen.
+ *
+ * @author Nick Vocaire
+ */
+final class RobotFrameSource implements FrameSource {
+
+    /**
+     * Robot that captures the screen.
+     */
+    private final Robot robot;
+
+    /**
+     * Constructor for capturing the screen with a robot.
+     *
+     * @param r the robot
+     */
+    protected RobotFrameSource(final Robot r) {
+        robot = r;
+    }
+
+    @Override
+    public BufferedImage capture(final Rectangle area) {
+        return robot.createScreenCapture(area);
+    }
+}
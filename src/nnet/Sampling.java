@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+/**
+ * How the pixels of a block of the region are turned into the value of one
+ * input neuron. Averaging every pixel smooths the image most, the others
+ * read fewer pixels so a frame is ready sooner.
+ *
+ * @author Nick Vocaire
+ */
+enum Sampling {
+
+    /**
+     * Average of every pixel of the block.
+     */
+    AVERAGE,
+
+    /**
+     * Average of an evenly spaced grid of pixels, the network's samples per
+     * side across and down.
+     */
+    STRIDED,
+
+    /**
+     * The pixel in the middle of the block.
+     */
+    CENTER
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/**
+ * Frames made up from a seed, the same every run, for testing and timing
+ * without a display.
+ *
+ * Each frame picks one of its keys at random and is dark noise with a
+ * bright band in the column of the area that belongs to that key, so a
+ * network can learn which key goes with a frame.
+ *
+ * @author Nick Vocaire
+ */
+final class SyntheticFrameSource implements FrameSource {
+
+    /**
+     * Gray value of the dark part of a frame.
+     */
+    private static final int DARK = 40;
+
+    /**
+     * Gray value of the band.
+     */
+    private static final int BRIGHT = 200;
+
+    /**
+     * Largest gray value of the noise added to every pixel.
+     */
+    private static final int NOISE = 32;
+
+    /**
+     * Picks the key of each frame.
+     */
+    private final Random random;
+
+    /**
+     * Names of the keys, one band each.
+     */
+    private final String[] keys;
+
+    /**
+     * Frame returned by capture, reused while the area keeps its size.
+     */
+    private BufferedImage frame;
+
+    /**
+     * key - index of the key of the last frame. count - frames made.
+     */
+    private int key, count;
+
+    /**
+     * Constructor for making frames for a set of keys.
+     *
+     * @param seed seed of the frames
+     * @param k names of the keys
+     */
+    protected SyntheticFrameSource(final long seed, final String[] k) {
+        random = new Random(seed);
+        keys = k.clone();
+    }
+
+    /**
+     * Constructor for making frames for the keys of a network's outputs.
+     *
+     * @param seed seed of the frames
+     * @param net the network
+     */
+    protected SyntheticFrameSource(final long seed, final Network net) {
+        random = new Random(seed);
+        keys = new String[net.getOutputSize()];
+        for (int o = 0; o < keys.length; o++) {
+            keys[o] = net.getOutputNeuron(o).getKeyName();
+        }
+    }
+
+    @Override
+    public BufferedImage capture(final Rectangle area) {
+        int w = area.width, h = area.height;
+        if (frame == null || frame.getWidth() != w
+                || frame.getHeight() != h) {
+            frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer())
+                .getData();
+
+        key = random.nextInt(keys.length);
+        int bandStart = key * w / keys.length;
+        int bandEnd = (key + 1) * w / keys.length;
+        int seed = random.nextInt() | 1;
+        count++;
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                //Cheap hash of the pixel and the frame for the noise
+                int hash = (x * 0x9E3779B1 + y * 0x85EBCA77) ^ seed;
+                hash ^= hash >>> 15;
+                hash *= 0x2C1B3C6D;
+                hash ^= hash >>> 13;
+
+                int gray = (x >= bandStart && x < bandEnd ? BRIGHT : DARK)
+                        + (hash & 0xFF) * NOISE / 256;
+                pixels[y * w + x] = gray << 16 | gray << 8 | gray;
+            }
+        }
+        return frame;
+    }
+
+    @Override
+    public String getKeyPressed() {
+        return count == 0 ? null : keys[key];
+    }
+}
@@ -16,7 +16,9 @@
  */
 package nnet;
 
+import java.awt.GraphicsEnvironment;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
@@ -33,6 +35,14 @@ import org.jnativehook.keyboard.NativeKeyListener;
 /**
  * Trainer for network.
  *
+ * Can also be run with no display, training a supervised network on frames
+ * replayed from a directory of images or made up from a seed, with the key
+ * of each frame coming from the frames instead of the keyboard. Run with:
+ * network frames updates [learning rate] [batch size] [shards] [lock-free
+ * threads] [striped], where frames is a directory or image, or a seed if
+ * there is no such file. Lock-free threads above 0 train with
+ * HogwildTrainer, which is faster but not repeatable.
+ *
  * @author Nick Vocaire
  */
 class Trainer extends Thread {
@@ -41,6 +51,7 @@ class Trainer extends Thread {
     final int DEFAULT_PORT = 22333;
     final double DEFAULT_LEARNING_RATE = .5;
     final long DEFAULT_SAVE_TIME = 30000;
+    final int DEFAULT_BATCH_SIZE = 1;
 
     Network loadedNetwork;
     ServerSocket serverSocket;
@@ -50,9 +61,27 @@ class Trainer extends Thread {
     JLabel keyPressedLabel, timeTrainedLabel;
     String keyPressed;
     int updates, mode; //0 = training, 1 = playing (DEFAULT SET TO 0)
+    int batchSize; //Samples per weight change, 1 changes them every update
+    int shards; //Pieces a batch is split into to train on different threads
+    ParallelBatch batch;
+    int hogwildThreads; //Threads training without locks, 0 to not use them
+    boolean hogwildStriped; //Lock blocks of weights while changing them
+    HogwildTrainer hogwild;
+    boolean quantized; //Play with an 8 bit copy of the network
+    QuantizedNetwork quantizedNetwork;
     double learningRate, reward;
+    double[] outputErrors; //Output errors in a row for back-propagating
     long lastSave;
-    boolean running, mouseMoved; //mouseMoved for moving the mouse to region when trainer starts
+    Checkpointer checkpointer; //Saves copies of the network on its own thread
+    boolean checkpointed; //Final weights were saved by the checkpointer
+    long updateCount; //Updates run since the trainer started
+    long stopAfter; //Updates to stop after, 0 to run until stopped
+    boolean asyncCapture; //Capture frames on their own thread
+    CapturePipeline pipeline;
+    File recordFile; //Dataset samples are recorded to, null to not record
+    DatasetRecorder recorder;
+    volatile boolean running; //Set by other threads to stop the trainer
+    boolean mouseMoved; //For moving the mouse to region when trainer starts
 
     /**
      * Basic constructor for making a network trainer.
@@ -61,9 +90,11 @@ class Trainer extends Thread {
      */
     protected Trainer(final Network net) {
         loadedNetwork = net;
-        keyPressed = "None";
+        keyPressed = "NONE";
         updates = DEFAULT_UPDATES;
         learningRate = DEFAULT_LEARNING_RATE;
+        batchSize = DEFAULT_BATCH_SIZE;
+        shards = ParallelBatch.SHARDS;
         mode = 0;
         reward = 1;
         mouseMoved = false;
@@ -105,6 +136,8 @@ class Trainer extends Thread {
         mouseMoved = false;
         running = true;
         learningRate = l;
+        batchSize = DEFAULT_BATCH_SIZE;
+        shards = ParallelBatch.SHARDS;
 
         if (loadedNetwork.getNetType().equals("reinforcement")) {
             try {
@@ -119,6 +152,91 @@ class Trainer extends Thread {
         logger.setLevel(Level.OFF);
     }
 
+    /**
+     * Trains a network with no display for a number of updates on recorded
+     * or synthetic frames, then saves it.
+     *
+     * @param args network, frames (a directory or image, or a seed), updates,
+     * then optionally the learning rate, batch size, shards, lock-free
+     * threads and true to lock blocks of weights while changing them
+     * @throws IOException if the network or frames can not be read or the
+     * network can not be saved
+     * @throws InterruptedException if interrupted while training
+     */
+    public static void main(final String[] args) throws IOException,
+            InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: Trainer network frames updates "
+                    + "[learning rate] [batch size] [shards] [lock-free "
+                    + "threads] [striped]");
+            return;
+        }
+
+        Network net = new Network(args[0]);
+        net.load();
+        if (!net.getNetType().equals("supervised")) {
+            System.err.println("Only supervised networks can be trained "
+                    + "without a display");
+            return;
+        }
+
+        //A file or directory is replayed, anything else is a seed
+        File path = new File(args[1]);
+        int width, height;
+        if (path.exists()) {
+            RecordedFrameSource recorded = new RecordedFrameSource(path);
+            net.setFrameSource(recorded);
+            width = recorded.getWidth();
+            height = recorded.getHeight();
+        } else {
+            long seed;
+            try {
+                seed = Long.parseLong(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.println("No frames at " + path);
+                return;
+            }
+            net.setFrameSource(new SyntheticFrameSource(seed, net));
+            width = net.getInputResWidth();
+            height = net.getInputResHeight();
+        }
+
+        //Networks that never had a region picked use the whole frame
+        if (net.getRegionWidth() == 0 || net.getRegionHeight() == 0) {
+            net.setRegionX(0);
+            net.setRegionY(0);
+            net.setRegionWidth(width);
+            net.setRegionHeight(height);
+        }
+
+        Trainer trainer = new Trainer(net);
+        trainer.setUpdates(0);
+        trainer.setStopAfter(Long.parseLong(args[2]));
+        if (args.length > 3) {
+            trainer.setLearningRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            trainer.setBatchSize(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            trainer.setShards(Integer.parseInt(args[5]));
+        }
+        if (args.length > 6) {
+            trainer.setHogwild(Integer.parseInt(args[6]), args.length > 7
+                    && Boolean.parseBoolean(args[7]));
+        }
+
+        long start = System.nanoTime();
+        trainer.start();
+        trainer.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d updates in %.1f s, %.1f per second%n",
+                trainer.getUpdateCount(), seconds,
+                trainer.getUpdateCount() / seconds);
+        trainer.saveNetwork();
+    }
+
     /**
      * Method for setting the mode of the trainer.
      *
@@ -128,16 +246,138 @@ class Trainer extends Thread {
         mode = m;
     }
 
+    /**
+     * Method for setting how many times per second the trainer updates.
+     *
+     * @param u updates per second, 0 or less to update as fast as it can
+     */
+    protected void setUpdates(final int u) {
+        updates = u;
+    }
+
+    /**
+     * Method for stopping the trainer by itself after a number of updates.
+     *
+     * @param u updates to stop after, 0 or less to run until stopped
+     */
+    protected void setStopAfter(final long u) {
+        stopAfter = Math.max(0, u);
+    }
+
+    /**
+     * Method for capturing and converting frames on their own thread while
+     * the network runs, always using the newest frame. Counters for the
+     * capture are printed when the trainer stops.
+     *
+     * @param a true to capture on another thread
+     */
+    protected void setAsyncCapture(final boolean a) {
+        asyncCapture = a;
+    }
+
+    /**
+     * Method for recording every sample trained on to a dataset file, to
+     * train on again later. Samples are added if the file already holds
+     * samples of this network.
+     *
+     * @param f the file, null to not record
+     */
+    protected void setRecording(final File f) {
+        recordFile = f;
+    }
+
+    /**
+     * Method for setting the learning rate.
+     *
+     * @param l learning rate
+     */
+    protected void setLearningRate(final double l) {
+        learningRate = l;
+    }
+
+    /**
+     * Returns the number of updates run since the trainer started.
+     *
+     * @return number of updates
+     */
+    protected long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Method for setting how many samples are trained on before the weights
+     * are changed.
+     *
+     * @param b batch size, 1 changes the weights every update
+     */
+    protected void setBatchSize(final int b) {
+        batchSize = Math.max(1, b);
+    }
+
+    /**
+     * Method for setting how many pieces a batch is split into to train on
+     * different threads. Training gives the same weights for the same
+     * samples and number of shards however many threads there are, so the
+     * default is a fixed count rather than the number of cores.
+     *
+     * @param s number of shards
+     */
+    protected void setShards(final int s) {
+        shards = Math.max(1, s);
+    }
+
+    /**
+     * Method for training on several threads that change the weights with
+     * no locks. Trains on more samples per second but is not repeatable.
+     *
+     * @param threads number of threads, 0 to train on this thread
+     * @param striped true to lock blocks of weights while changing them
+     */
+    protected void setHogwild(final int threads, final boolean striped) {
+        hogwildThreads = Math.max(0, threads);
+        hogwildStriped = striped;
+    }
+
+    /**
+     * Method for playing with an 8 bit copy of the network, which reads much
+     * less memory every frame. How far its outputs are from the network's is
+     * printed when the copy is made, on the fixed samples of
+     * QuantizedNetwork.getSamples.
+     *
+     * @param q true to play with the copy
+     */
+    protected void setQuantized(final boolean q) {
+        quantized = q;
+    }
+
     /**
      * The code to be run when the thread is started, calls the update method
      * the amount of times specified per sec.
      */
     @Override
     public void run() {
+        if (asyncCapture) {
+            pipeline = new CapturePipeline(loadedNetwork);
+            pipeline.start();
+        }
+        if (recordFile != null && mode == 0) {
+            try {
+                recorder = new DatasetRecorder(recordFile, loadedNetwork);
+            } catch (IOException ex) {
+                System.err.println("Not recording: " + ex);
+            }
+        }
+
+        if (hogwildThreads > 0 && mode == 0) {
+            hogwild = new HogwildTrainer(loadedNetwork, hogwildThreads,
+                    hogwildStriped, learningRate);
+            hogwild.start();
+        }
+
         //Training reinforcement
         if (loadedNetwork.getNetType().equals("reinforcement") && mode == 0) {
             try {
-                keyPressedLabel.setText("Connecting...");
+                setKeyText("Connecting...");
                 repaintFrames();
                 program = serverSocket.accept();
                 programInput = new BufferedReader(
@@ -147,6 +387,8 @@ class Trainer extends Thread {
             }
 
             lastSave = System.currentTimeMillis();
+            checkpointer = new Checkpointer();
+            checkpointer.start(loadedNetwork);
 
             //Waits for input then trains network so it updates at the
             //same speed as the program
@@ -161,33 +403,40 @@ class Trainer extends Thread {
 
                 if (System.currentTimeMillis()
                         >= lastSave + DEFAULT_SAVE_TIME) {
-                    try {
-                        loadedNetwork.save();
-                        lastSave = System.currentTimeMillis();
-                        loadedNetwork.setNetTrainTime(
-                                loadedNetwork.getNetTrainTime()
-                                + DEFAULT_SAVE_TIME / 1000);
-                    } catch (IOException ex) {
-                        System.err.println(ex);
+                    //Only copying the weights holds up the program, they
+                    //are written on the checkpoint thread
+                    if (checkpointer.checkpoint(loadedNetwork)) {
+                        System.out.printf("Checkpoint stalled %.2f ms, %d of"
+                                + " %d blocks changed%n",
+                                checkpointer.getLastStall() / 1e6,
+                                checkpointer.getLastChanged(),
+                                checkpointer.getBlocks());
                     }
+                    lastSave = System.currentTimeMillis();
+                    loadedNetwork.setNetTrainTime(
+                            loadedNetwork.getNetTrainTime()
+                            + DEFAULT_SAVE_TIME / 1000);
                 }
 
             }
 
         } else { //Supervised or playing mode
-            try {
-                //Hooks into native libraries of the OS in order to get key
-                //presses when outside of the JFrame
-                GlobalScreen.registerNativeHook();
-                GlobalScreen.addNativeKeyListener(new GlobalKeyListener());
-            } catch (NativeHookException ex) {
+            //Hooks into native libraries of the OS in order to get key
+            //presses when outside of the JFrame, which needs a display
+            if (!GraphicsEnvironment.isHeadless()) {
+                try {
+                    GlobalScreen.registerNativeHook();
+                    GlobalScreen.addNativeKeyListener(
+                            new GlobalKeyListener());
+                } catch (NativeHookException ex) {
+                }
             }
 
             int fps = 0;
             long lastLoopTime = System.nanoTime();
             long fpsTimer = 0;
-            //Optimal time between each loop
-            final long OPTIMAL_TIME = 1000000000 / updates;
+            //Optimal time between each loop, none to run as fast as it can
+            final long OPTIMAL_TIME = updates > 0 ? 1000000000 / updates : 0;
 
             while (running) {
                 long now = System.nanoTime();
@@ -201,7 +450,8 @@ class Trainer extends Thread {
                 //If its been 1 sec, shows the frames in that secound
                 if (fpsTimer >= 1000000000) {
                     if (frames != null) {
-                        frames[0].setTitle("U: " + fps);
+                        frames[0].setTitle("U: " + fps + (pipeline == null
+                                ? "" : " D: " + pipeline.getDropped()));
                     }
 
                     //Increase the network train time by 1 secound
@@ -241,15 +491,49 @@ class Trainer extends Thread {
                 }
             }
         }
+
+        //Train on what is left in the batch
+        if (batch != null && mode == 0) {
+            batch.train(learningRate);
+        }
+        if (hogwild != null) {
+            hogwild.stop();
+            System.out.println("Lock-free: trained " + hogwild.getTrained()
+                    + ", dropped " + hogwild.getDropped());
+        }
+        //The final weights, including the leftover batch, are the last
+        //checkpoint so the GUI does not save over the writer
+        if (checkpointer != null) {
+            checkpointed = checkpointer.finish(loadedNetwork);
+            System.out.println("Checkpoints: " + checkpointer.getStats());
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+            System.out.println("Capture: " + pipeline.getStats());
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException ex) {
+                System.err.println(ex);
+            }
+            System.out.println("Recorded " + recorder.getWritten()
+                    + " samples to " + recordFile + ", dropped "
+                    + recorder.getDropped());
+        }
     }
 
     /**
-     * Method for stopping the trainer.
+     * Method for stopping the trainer. Waits for the trainer thread to train
+     * what is left and finish its checkpoints, so the network can be saved
+     * once this returns without anything still changing or writing it.
      */
     protected void stopTraining() {
-        try {
-            GlobalScreen.unregisterNativeHook();
-        } catch (NativeHookException ex) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            try {
+                GlobalScreen.unregisterNativeHook();
+            } catch (NativeHookException ex) {
+            }
         }
 
         running = false;
@@ -265,12 +549,38 @@ class Trainer extends Thread {
             } catch (IOException ex) {
             }
         }
+
+        if (Thread.currentThread() != this) {
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Method for saving the network after the trainer has stopped. Does
+     * nothing if the final checkpoint already saved it.
+     *
+     * @throws IOException if the network can not be saved
+     */
+    protected void saveNetwork() throws IOException {
+        if (isAlive()) {
+            throw new IllegalStateException("Trainer is still running");
+        }
+        if (!checkpointed) {
+            loadedNetwork.save();
+        }
     }
 
     /**
      * Method for repainting frames.
      */
     protected void repaintFrames() {
+        if (frames == null) { //Running without a display
+            return;
+        }
         for (int i = 1; i < frames.length; i++) { //Repaint all frames
             frames[i].repaint();
         }
@@ -285,32 +595,56 @@ class Trainer extends Thread {
         time = time % 3600;
         long min = time / 60;
         time = time % 60;
-        timeTrainedLabel.setText("H:" + hour + " M:" + min + " S:" + time);
+        if (timeTrainedLabel != null) {
+            timeTrainedLabel.setText("H:" + hour + " M:" + min + " S:"
+                    + time);
+        }
+    }
+
+    /**
+     * Method for showing the key pressed, if there is a label for it.
+     *
+     * @param text the text to show
+     */
+    private void setKeyText(final String text) {
+        if (keyPressedLabel != null) {
+            keyPressedLabel.setText(text);
+        }
     }
 
     /**
      * The code to be run 'updates' amount of times per seconds.
      */
     private void update() {
+        updateCount++;
         if (mode == 1) { //Playing
             if (!mouseMoved) {
                 loadedNetwork.moveMouse();
                 mouseMoved = true;
             }
             //Converts region and stores in input neurons
-            loadedNetwork.convertRegion();
+            captureFrame();
 
             //Propgates input through network setting neuron values
-            loadedNetwork.calculate();
+            if (quantized) {
+                calculateQuantized();
+            } else {
+                loadedNetwork.calculate();
+            }
             loadedNetwork.play();
-            keyPressedLabel.setText(loadedNetwork.getPressedKey());
+            setKeyText(loadedNetwork.getPressedKey());
             loadedNetwork.printOutputs();
 
             displayTime();
 
         } else { //Training
             //Converts region and stores in input neurons
-            loadedNetwork.convertRegion();
+            String sourceKey = captureFrame();
+
+            //Sources that know the key of the frame stand in for the keyboard
+            if (sourceKey != null) {
+                keyPressed = sourceKey;
+            }
 
             //Propgates input through network setting neuron values
             loadedNetwork.calculate();
@@ -324,22 +658,88 @@ class Trainer extends Thread {
                 }
                 loadedNetwork.play();
                 keyPressed = loadedNetwork.getPressedKey();
-                keyPressedLabel.setText(keyPressed + " : " + reward);
+                setKeyText(keyPressed + " : " + reward);
             } else {
-                keyPressedLabel.setText(keyPressed);
+                setKeyText(keyPressed);
             }
 
             displayTime();
 
             //Only train network if keys are being pressed
             if (!keyPressed.equals("NONE")) {
-                backpropagate();
+                if (recorder != null) {
+                    recorder.record(loadedNetwork.getInputValues(),
+                            loadedNetwork.getOutputIndex(keyPressed), reward);
+                }
+                if (hogwild != null) {
+                    hogwild.submit(loadedNetwork.getInputValues(),
+                            loadedNetwork.getOutputIndex(keyPressed), reward);
+                } else if (batchSize > 1) {
+                    addToBatch();
+                } else {
+                    backpropagate();
+                }
             }
 
-            loadedNetwork.printOutputs();
+            //Without a display nobody is watching, so keep the loop fast
+            if (frames != null) {
+                loadedNetwork.printOutputs();
+            }
         }
 
         repaintFrames();
+
+        if (updateCount == stopAfter) {
+            running = false;
+        }
+    }
+
+    /**
+     * Puts the next frame of the region into the input neurons, taking the
+     * newest one from the capture thread when there is one.
+     *
+     * @return key the frame source reported for the frame, or null
+     */
+    private String captureFrame() {
+        if (pipeline != null) {
+            return pipeline.take();
+        }
+        loadedNetwork.convertRegion();
+        return loadedNetwork.getFrameSource().getKeyPressed();
+    }
+
+    /**
+     * Propagates the input through the 8 bit copy of the network, making it
+     * on the first frame and printing how far its outputs are from the
+     * network's on a fixed set of samples.
+     */
+    private void calculateQuantized() {
+        if (quantizedNetwork == null) {
+            quantizedNetwork = new QuantizedNetwork(loadedNetwork);
+
+            //Checking the copy changes the inputs, keep this frame's
+            double[] frame = loadedNetwork.getInputValues().clone();
+            quantizedNetwork.printDeviation(
+                    QuantizedNetwork.getSamples(loadedNetwork));
+            System.arraycopy(frame, 0, loadedNetwork.getInputValues(), 0,
+                    frame.length);
+        }
+        quantizedNetwork.calculate();
+    }
+
+    /**
+     * Method for adding the current frame to the batch, training the network
+     * on the whole batch once it is full.
+     */
+    private void addToBatch() {
+        if (batch == null || batch.getCapacity() != batchSize) {
+            batch = new ParallelBatch(loadedNetwork, batchSize, shards);
+        }
+
+        if (batch.add(loadedNetwork.getInputValues(),
+                loadedNetwork.getOutputIndex(keyPressed), reward)) {
+            batch.train(learningRate);
+        }
     }
 
     /**
@@ -347,99 +747,70 @@ class Trainer extends Thread {
      * error for each neuron then adjust weights.
      */
     private void backpropagate() {
+        if (outputErrors == null
+                || outputErrors.length != loadedNetwork.getOutputSize()) {
+            outputErrors = new double[loadedNetwork.getOutputSize()];
+        }
+
+        //Output values, to find the errors of all outputs at once
+        for (int o = 0; o < loadedNetwork.getOutputSize(); o++) {
+            outputErrors[o] = loadedNetwork.getOutputNeuron(o).getValue();
+        }
+        loadedNetwork.outputErrors(outputErrors, 0,
+                loadedNetwork.getOutputIndex(keyPressed), reward,
+                outputErrors, 0);
 
         //Loop through all output neruons
         for (int o = 0; o < loadedNetwork.getOutputSize(); o++) {
             ONeuron output = loadedNetwork.getOutputNeuron(o);
-
-            if (output.getKeyName().equals(keyPressed)) {
-                output.setError(reward * (1.0 - output.getValue())
-                        * sigmoidDer(output.getValue()));
-            } else {
-                output.setError((0.0 - output.getValue())
-                        * sigmoidDer(output.getValue()));
-            }
-
+            output.setError(outputErrors[o]);
             output.setBias(output.getBias() + learningRate * output.getError());
         }
 
         //Loop through all layers reversed
         for (int l = loadedNetwork.getLayerSize() - 1; l >= 0; l--) {
             Layer layer = loadedNetwork.getLayer(l);
-
-            //Loop through all neurons in the layer
-            for (int n = 0; n < layer.getSize(); n++) {
-                double totalError = 0.0; //For adding error
-
-                //If the layer is connected to output layer
-                if (l == loadedNetwork.getLayerSize() - 1) {
-                    for (int o = 0; o < loadedNetwork.getOutputSize(); o++) {
-                        ONeuron output = loadedNetwork.getOutputNeuron(o);
-
-                        totalError += output.getError()
-                                * layer.getNeuronWeight(n, o)
-                                * sigmoidDer(layer.getNeuronValue(n));
-                    }
-                } else { //If layer is not layer closest to output layer
-                    Layer prevLayer = loadedNetwork.getLayer(l + 1);
-                    for (int o = 0; o < prevLayer.getSize(); o++) {
-                        totalError += prevLayer.getNeuronError(n)
-                                * layer.getNeuronWeight(n, o)
-                                * sigmoidDer(layer.getNeuronValue(n));
-                    }
-                }
-
-                //Setting neuron error then neuron bias
-                layer.setNeuronError(n, totalError);
-                layer.setNeuronBias(n, layer.getNeuronBias(n)
-                        + learningRate * layer.getNeuronError(n));
-
-                //Loop through all weights of neuron
-                for (int w = 0; w < layer.getNeuronWeightSize(n); w++) {
-
-                    //If the layer is connected to output layer
-                    if (l == loadedNetwork.getLayerSize() - 1) {
-                        ONeuron output = loadedNetwork.getOutputNeuron(w);
-
-                        double adjustment = layer.getNeuronWeight(n, w)
-                                + learningRate * output.getError()
-                                * layer.getNeuronValue(n);
-                        layer.setNeuronWeight(n, w, adjustment);
-                    } else { //If layer is not layer closest to output layer
-                        Layer prevLayer = loadedNetwork.getLayer(l + 1);
-
-                        double adjustment = layer.getNeuronWeight(n, w)
-                                + learningRate * prevLayer.getNeuronError(w)
-                                * layer.getNeuronValue(n);
-                        layer.setNeuronWeight(n, w, adjustment);
-                    }
+            Matrix weights = layer.getWeights();
+            double[] values = layer.getValues();
+            double[] errors = layer.getErrors();
+            double[] biases = layer.getBiases();
+            Activation activation = layer.getActivation();
+
+            //Errors of the layer (or output) this layer connects to
+            double[] nextErrors = l == loadedNetwork.getLayerSize() - 1
+                    ? outputErrors : loadedNetwork.getLayer(l + 1).getErrors();
+
+            //Loop through all neurons in the layer, split across cores for
+            //wide layers
+            Parallel.forRange(0, layer.getSize(),
+                    2L * weights.getColumns(), (from, to) -> {
+                for (int n = from; n < to; n++) {
+
+                    //Setting neuron error from the errors it connects to,
+                    //then neuron bias
+                    errors[n] = weights.dotRow(n, nextErrors)
+                            * activation.derivative(values[n]);
+                    biases[n] += learningRate * errors[n];
+
+                    //Adjust all weights of neuron
+                    weights.addToRow(n, learningRate * values[n], nextErrors);
                 }
-            }
+            });
         }
 
-        Layer firstLayer = loadedNetwork.getLayer(0);
-
-        //Loop through input neurons
-        for (int i = 0; i < loadedNetwork.getInputSize(); i++) {
-            INeuron input = loadedNetwork.getInputNeuron(i);
-
-            for (int w = 0; w < input.getWeightSize(); w++) {
-                double adjustment = input.getWeight(w) + learningRate
-                        * firstLayer.getNeuronError(w) * input.getValue();
-                input.setWeight(w, adjustment);
+        Matrix inputWeights = loadedNetwork.getInputWeights();
+        double[] inputValues = loadedNetwork.getInputValues();
+        double[] firstErrors = loadedNetwork.getLayer(0).getErrors();
+
+        //Loop through input neurons, scaled the same as when calculating
+        double inputRate = learningRate * Network.INPUT_SCALE;
+        Parallel.forRange(0, loadedNetwork.getInputSize(),
+                inputWeights.getColumns(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                inputWeights.addToRow(i, inputRate * inputValues[i],
+                        firstErrors);
             }
-        }
-    }
-
-    /**
-     * Method for computing the derivative of the sigmoid based on the value of
-     * a neuron.
-     *
-     * @param value the value of the neuron
-     * @return the slope of the neuron value
-     */
-    private double sigmoidDer(final double value) {
-        return value * (1.0 - value);
+        });
     }
 
     /**
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Nick Vocaire
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nnet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks FastSigmoid against 1 / (1 + Math.exp(-v)) inside the table and
+ * past both of its ends.
+ *
+ * @author Nick Vocaire
+ */
+public class FastSigmoidTest {
+
+    /**
+     * Values checked per unit of input, more than the table has so points
+     * between its values are checked too.
+     */
+    private static final int STEPS = 4096;
+
+    /**
+     * Returns the exact sigmoid of a value.
+     *
+     * @param v value
+     * @return squished value
+     */
+    private static double exact(final double v) {
+        return 1 / (1 + Math.exp(-v));
+    }
+
+    /**
+     * Sweeps from twice -RANGE to twice RANGE and checks every value is
+     * within MAX_ERROR.
+     */
+    @Test
+    public void sweep() {
+        double end = 2 * FastSigmoid.RANGE;
+
+        for (int i = (int) (-end * STEPS); i <= end * STEPS; i++) {
+            double v = (double) i / STEPS;
+            assertEquals("sigmoid(" + v + ")", exact(v),
+                    FastSigmoid.sigmoid(v), FastSigmoid.MAX_ERROR);
+        }
+    }
+
+    /**
+     * Checks values far past the ends of the table, where the ends are
+     * used.
+     */
+    @Test
+    public void ends() {
+        double[] values = {-Double.MAX_VALUE, -1e6, -FastSigmoid.RANGE - 1e-9,
+            FastSigmoid.RANGE + 1e-9, 1e6, Double.MAX_VALUE};
+
+        for (double v : values) {
+            assertEquals("sigmoid(" + v + ")", exact(v),
+                    FastSigmoid.sigmoid(v), FastSigmoid.MAX_ERROR);
+        }
+    }
+
+    /**
+     * Checks the values never go down as the input goes up.
+     */
+    @Test
+    public void increasing() {
+        double end = 2 * FastSigmoid.RANGE;
+        double last = FastSigmoid.sigmoid(-end);
+
+        for (int i = (int) (-end * STEPS) + 1; i <= end * STEPS; i++) {
+            double now = FastSigmoid.sigmoid((double) i / STEPS);
+            assertTrue("sigmoid went down at " + (double) i / STEPS,
+                    now >= last);
+            last = now;
+        }
+    }
+}